@@ -1,7 +1,7 @@
 precision lowp float;
 
-uniform vec4 v_Color;
+uniform vec4 u_Color;
 
 void main() {
-  gl_FragColor = v_Color;
+  gl_FragColor = u_Color;
 }
@@ -1,9 +1,34 @@
+#extension GL_OES_standard_derivatives : enable
 precision lowp float;
 
+// Grid coordinates need more than lowp to stay sharp across a large grid
+#ifdef GL_FRAGMENT_PRECISION_HIGH
+#define GRID_PRECISION highp
+#else
+#define GRID_PRECISION mediump
+#endif
+
 uniform vec3 u_Min;
 uniform vec3 u_Max;
+// Width of the grid lines in pixels, 0 for a filled surface
+uniform mediump float u_LineWidth;
 varying vec3 v_Color;
+// Diffuse lighting from the vertex shader, 1 when unlit
+varying float v_Shade;
+// Grid lines from the start (xy) and from the end (zw) of the grid, see graph.vert
+varying GRID_PRECISION vec4 v_Grid;
 
 void main() {
-  gl_FragColor = vec4((v_Color - u_Min) / (u_Max - u_Min), 1);
+#ifdef GL_OES_standard_derivatives
+  if (u_LineWidth > 0.0) {
+    // Pixels to the nearest line along each axis, or to the last line if it's closer
+    GRID_PRECISION vec4 width = fwidth(v_Grid);
+    GRID_PRECISION vec2 distance = min(abs(fract(v_Grid.xy - 0.5) - 0.5) / width.xy,
+        abs(v_Grid.zw) / width.zw);
+    if (min(distance.x, distance.y) > u_LineWidth * 0.5) {
+      discard;
+    }
+  }
+#endif
+  gl_FragColor = vec4((v_Color - u_Min) / (u_Max - u_Min) * v_Shade, 1);
 }
@@ -0,0 +1,38 @@
+uniform mat4 u_ModelViewProjection;
+// 1 to shade by a_Normal, 0 for a flat color
+uniform float u_Lighting;
+// Cells of the grid along each axis, columns - 1 and rows - 1
+uniform vec2 u_GridSize;
+// Cells between grid lines, the level of detail's stride
+uniform float u_LineSpacing;
+// (x, y) bounds of the grid
+uniform vec2 u_LatticeMin;
+uniform vec2 u_LatticeMax;
+// Decodes quantized heights, 1 and 0 for floats
+uniform float u_HeightScale;
+uniform float u_HeightOffset;
+
+// Grid position from 0 to 1, shared by every grid of the same size
+attribute vec2 a_Lattice;
+attribute float a_Height;
+// Unit normal in (y, z, x) order, only for lighting
+attribute vec3 a_Normal;
+varying lowp vec3 v_Color;
+varying lowp float v_Shade;
+// Grid lines counted from the start and from the end of the grid, for graph.frag's wireframe
+varying vec4 v_Grid;
+
+// Light from above, in (y, z, x) order
+const vec3 LIGHT_DIRECTION = vec3(0.26, 0.86, 0.43);
+
+void main() {
+    vec2 xy = u_LatticeMin + a_Lattice * (u_LatticeMax - u_LatticeMin);
+    // Same (y, z, x) order as graph.vert
+    vec3 position = vec3(xy.y, a_Height * u_HeightScale + u_HeightOffset, xy.x);
+    v_Color = position;
+    // Two-sided, since the strips are drawn without face culling
+    v_Shade = u_Lighting > 0.0 ? 0.4 + 0.6 * abs(dot(a_Normal, LIGHT_DIRECTION)) : 1.0;
+    vec2 grid = a_Lattice * u_GridSize;
+    v_Grid = vec4(grid, u_GridSize - grid) / u_LineSpacing;
+    gl_Position = u_ModelViewProjection * vec4(position, 1);
+}
@@ -0,0 +1,63 @@
+uniform mat4 u_ModelViewProjection;
+// Decodes quantized positions, (1, 1, 1) and 0 for floats
+uniform vec3 u_PositionScale;
+uniform vec3 u_PositionOffset;
+// Viewport size and line width, in pixels
+uniform vec2 u_Viewport;
+uniform float u_Thickness;
+
+// Each point twice, with the side of the line it's moved to in w: -1 or 1, or 0 for the ends of a
+// polyline. The points before and after it come from the same buffer, see ThickLines.
+attribute vec4 a_Position;
+attribute vec3 a_Previous;
+attribute vec3 a_Next;
+varying lowp vec3 v_Color;
+varying lowp float v_Shade;
+// Declared for graph.frag, whose wireframe is off for lines
+varying vec4 v_Grid;
+
+vec4 project(vec3 stored) {
+    return u_ModelViewProjection * vec4(stored * u_PositionScale + u_PositionOffset, 1);
+}
+
+// Clip space to pixels from the centre of the viewport
+vec2 toScreen(vec4 clip) {
+    return clip.xy / max(clip.w, 1e-6) * 0.5 * u_Viewport;
+}
+
+void main() {
+    vec3 position = a_Position.xyz * u_PositionScale + u_PositionOffset;
+    v_Color = position;
+    v_Shade = 1.0;
+    v_Grid = vec4(0.0);
+    vec4 clip = u_ModelViewProjection * vec4(position, 1);
+
+    vec2 screen = toScreen(clip);
+    vec2 before = screen - toScreen(project(a_Previous));
+    vec2 after = toScreen(project(a_Next)) - screen;
+    // At the ends of a polyline one neighbour is the point itself
+    if (dot(before, before) < 1e-6) {
+        before = after;
+    }
+    if (dot(after, after) < 1e-6) {
+        after = before;
+    }
+    if (dot(before, before) < 1e-6) {
+        // A single point, or one facing the camera head on
+        before = vec2(1.0, 0.0);
+        after = before;
+    }
+    before = normalize(before);
+    after = normalize(after);
+
+    // Miter join, no longer than twice the width at sharp turns
+    vec2 normal = vec2(-before.y, before.x);
+    vec2 tangent = before + after;
+    vec2 miter = dot(tangent, tangent) > 1e-6 ? normalize(vec2(-tangent.y, tangent.x)) : normal;
+    float miterLength = 1.0 / max(dot(miter, normal), 0.5);
+    vec2 offset = miter * miterLength * a_Position.w * u_Thickness * 0.5;
+
+    // Back to clip space at the point's depth
+    clip.xy += offset / (0.5 * u_Viewport) * clip.w;
+    gl_Position = clip;
+}
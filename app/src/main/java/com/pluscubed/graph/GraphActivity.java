@@ -7,6 +7,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.Toast;
 
@@ -36,14 +37,25 @@ import com.pluscubed.graph.arcore.helpers.TapHelper;
 import com.pluscubed.graph.arcore.rendering.BackgroundRenderer;
 import com.pluscubed.graph.arcore.rendering.PlaneRenderer;
 import com.pluscubed.graph.arcore.rendering.PointCloudRenderer;
+import com.pluscubed.graph.mesh.Mesh;
+import com.pluscubed.graph.mesh.MeshCache;
+import com.pluscubed.graph.mesh.MeshDiskCache;
+import com.pluscubed.graph.mesh.MeshKey;
+import com.pluscubed.graph.mesh.MeshScheduler;
 import com.pluscubed.graph.rendering.AxesRenderer;
+import com.pluscubed.graph.rendering.GlCapabilities;
+import com.pluscubed.graph.rendering.GpuBufferManager;
 import com.pluscubed.graph.rendering.GraphCurveRenderer;
 import com.pluscubed.graph.rendering.GraphFunctionRenderer;
 import com.pluscubed.graph.rendering.GraphSurfaceRenderer;
+import com.pluscubed.graph.rendering.GridTopologyCache;
+import com.pluscubed.graph.rendering.ThickLines;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -57,6 +69,19 @@ public class GraphActivity extends AppCompatActivity implements GLSurfaceView.Re
 
     public static final float INITIAL_SCALE_FACTOR = 0.05f;
 
+    // Mesh builds running longer than this are abandoned
+    private static final long MESH_BUDGET_MS = 10000;
+    // Vertex data kept for meshes that aren't on screen
+    private static final int MESH_CACHE_BYTES = 32 * 1024 * 1024;
+    // Meshes saved across launches
+    private static final long MESH_DISK_CACHE_BYTES = 64 * 1024 * 1024;
+    // Build graph meshes with their vertices packed into 16-bit shorts too, and upload those
+    private static final boolean QUANTIZE_VERTICES = true;
+
+    // Scheduler keys, one per graph
+    private static final String PARAMETRIC_GRAPH = "parametric";
+    private static final String FUNCTION_GRAPH = "function";
+
     private final SnackbarHelper messageSnackbarHelper = new SnackbarHelper();
     private final PointCloudRenderer pointCloudRenderer = new PointCloudRenderer();
     // Anchors created from taps used for object placing.
@@ -71,10 +96,19 @@ public class GraphActivity extends AppCompatActivity implements GLSurfaceView.Re
     private final PlaneRenderer planeRenderer = new PlaneRenderer();
     private DisplayRotationHelper displayRotationHelper;
 
-    private final GraphSurfaceRenderer surfaceObject = new GraphSurfaceRenderer();
-    private final GraphCurveRenderer curveObject = new GraphCurveRenderer();
+    // GL buffers of the graph renderers
+    private final GpuBufferManager bufferManager = new GpuBufferManager();
+    private final GridTopologyCache gridTopologies = new GridTopologyCache(bufferManager);
+    private final GraphSurfaceRenderer surfaceObject = new GraphSurfaceRenderer(bufferManager, gridTopologies);
+    private final GraphCurveRenderer curveObject = new GraphCurveRenderer(bufferManager);
     private final AxesRenderer axesRenderer = new AxesRenderer();
-    private final GraphFunctionRenderer functionObject = new GraphFunctionRenderer();
+    private final GraphFunctionRenderer functionObject = new GraphFunctionRenderer(bufferManager, gridTopologies);
+
+    // Graph meshes are built here so tessellation never blocks a frame. Finished meshes are handed
+    // to the renderers, which swap them in on the GL thread.
+    private final MeshScheduler meshScheduler = new MeshScheduler(MESH_BUDGET_MS);
+    private final MeshCache meshCache = new MeshCache(MESH_CACHE_BYTES);
+    private MeshDiskCache meshDiskCache;
 
     // Temporary matrix allocated here to reduce number of allocations for each frame.
     private final float[] anchorMatrix = new float[16];
@@ -86,6 +120,8 @@ public class GraphActivity extends AppCompatActivity implements GLSurfaceView.Re
     Button viewParametricButton;
     @BindView(R.id.hide_parametric)
     Button hideParametricButton;
+    @BindView(R.id.fill_parametric)
+    CheckBox fillParametricCheckBox;
     @BindView(R.id.tbounds)
     BoundsView tBoundsView;
     @BindView(R.id.ubounds)
@@ -97,6 +133,8 @@ public class GraphActivity extends AppCompatActivity implements GLSurfaceView.Re
     Button viewFunctionButton;
     @BindView(R.id.hide_function)
     Button hideFunctionButton;
+    @BindView(R.id.fill_function)
+    CheckBox fillFunctionCheckBox;
     @BindView(R.id.xbounds)
     BoundsView xBoundsView;
     @BindView(R.id.ybounds)
@@ -108,12 +146,14 @@ public class GraphActivity extends AppCompatActivity implements GLSurfaceView.Re
     private boolean updateParametricGraph;
     private boolean parametricVisible;
     private boolean isParametricSurface;
+    private boolean parametricFilled;
 
     private String zFunction;
     private String[] xBounds = new String[2];
     private String[] yBounds = new String[2];
     private boolean updateFunctionGraph;
     private boolean functionVisible;
+    private boolean functionFilled;
 
     private float scaleFactor = INITIAL_SCALE_FACTOR;
 
@@ -123,22 +163,40 @@ public class GraphActivity extends AppCompatActivity implements GLSurfaceView.Re
         setContentView(R.layout.activity_main);
         ButterKnife.bind(this);
 
+        meshDiskCache = new MeshDiskCache(new File(getCacheDir(), "meshes"), MESH_DISK_CACHE_BYTES);
+
         viewParametricButton.setOnClickListener(view -> {
             parametricVisible = true;
+            meshScheduler.setPriority(PARAMETRIC_GRAPH, MeshScheduler.PRIORITY_VISIBLE);
             queueUpdateParametric();
         });
         hideParametricButton.setOnClickListener(view -> {
             parametricVisible = false;
+            meshScheduler.setPriority(PARAMETRIC_GRAPH, MeshScheduler.PRIORITY_HIDDEN);
+        });
+        // Curves are always lines
+        fillParametricCheckBox.setOnCheckedChangeListener((button, checked) -> {
+            surfaceObject.setFilled(checked);
+            // Filled surfaces are lit, which needs a mesh with normals
+            parametricFilled = checked;
+            updateParametricGraph = true;
         });
         tBoundsView.setBounds(new String[]{"0", "2*pi"});
         uBoundsView.setBounds(new String[]{"0", "2*pi"});
 
         viewFunctionButton.setOnClickListener(v -> {
             functionVisible = true;
+            meshScheduler.setPriority(FUNCTION_GRAPH, MeshScheduler.PRIORITY_VISIBLE);
             queueUpdateFunction();
         });
         hideFunctionButton.setOnClickListener(view -> {
             functionVisible = false;
+            meshScheduler.setPriority(FUNCTION_GRAPH, MeshScheduler.PRIORITY_HIDDEN);
+        });
+        fillFunctionCheckBox.setOnCheckedChangeListener((button, checked) -> {
+            functionObject.setFilled(checked);
+            functionFilled = checked;
+            updateFunctionGraph = true;
         });
         xBoundsView.setBounds(new String[]{"-5", "5"});
         yBoundsView.setBounds(new String[]{"-5", "5"});
@@ -176,6 +234,49 @@ public class GraphActivity extends AppCompatActivity implements GLSurfaceView.Re
         updateFunctionGraph = true;
     }
 
+    private void buildParametricMesh(float scaleFactor) {
+        // The components array is reused by the next queueUpdateParametric()
+        String[] components = parametricComponents.clone();
+        String[] tBounds = this.tBounds;
+        String[] uBounds = this.uBounds;
+        boolean filled = parametricFilled;
+        // Both renderers share a key, so switching between surface and curve drops the stale build
+        if (isParametricSurface) {
+            meshScheduler.submit(PARAMETRIC_GRAPH,
+                    job -> cachedMesh(
+                            GraphSurfaceRenderer.meshKey(components, tBounds, uBounds, scaleFactor, filled,
+                                    QUANTIZE_VERTICES),
+                            key -> GraphSurfaceRenderer.createMesh(key, job)),
+                    surfaceObject::setMesh);
+        } else {
+            meshScheduler.submit(PARAMETRIC_GRAPH,
+                    job -> cachedMesh(
+                            GraphCurveRenderer.meshKey(components, tBounds, scaleFactor, QUANTIZE_VERTICES),
+                            key -> GraphCurveRenderer.createMesh(key, job)),
+                    curveObject::setMesh);
+        }
+    }
+
+    private void buildFunctionMesh(float scaleFactor) {
+        String zFunction = this.zFunction;
+        String[] xBounds = this.xBounds;
+        String[] yBounds = this.yBounds;
+        boolean filled = functionFilled;
+        meshScheduler.submit(FUNCTION_GRAPH,
+                job -> cachedMesh(
+                        GraphFunctionRenderer.meshKey(zFunction, xBounds, yBounds, scaleFactor, filled,
+                                QUANTIZE_VERTICES),
+                        key -> GraphFunctionRenderer.createMesh(key, job)),
+                functionObject::setMesh);
+    }
+
+    /**
+     * Looks for the mesh in memory, then on disk, and only builds it if neither has it.
+     */
+    private Mesh cachedMesh(MeshKey key, Function<MeshKey, Mesh> builder) {
+        return meshCache.getOrBuild(key, k -> meshDiskCache.getOrBuild(k, builder));
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -257,6 +358,13 @@ public class GraphActivity extends AppCompatActivity implements GLSurfaceView.Re
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        meshScheduler.shutdown();
+        meshDiskCache.shutdown();
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] results) {
         super.onRequestPermissionsResult(requestCode, permissions, results);
@@ -282,6 +390,16 @@ public class GraphActivity extends AppCompatActivity implements GLSurfaceView.Re
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
         GLES20.glClearColor(0.1f, 0.1f, 0.1f, 1.0f);
 
+        // A new context starts without the graph buffers, so the graphs are uploaded again (from
+        // the mesh cache if they're still there)
+        bufferManager.invalidate();
+        // After the buffer manager, so nothing is deleted in the new context
+        gridTopologies.invalidate();
+        // Before the rebuilds below, which pick the index size from it
+        GlCapabilities.init();
+        updateParametricGraph = true;
+        updateFunctionGraph = true;
+
         // Prepare the rendering objects. This involves reading shaders, so may throw an IOException.
         try {
             // Create the texture and pass it to ARCore session to be filled during update().
@@ -304,6 +422,7 @@ public class GraphActivity extends AppCompatActivity implements GLSurfaceView.Re
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         displayRotationHelper.onSurfaceChanged(width, height);
         GLES20.glViewport(0, 0, width, height);
+        ThickLines.setViewport(width, height);
     }
 
     @Override
@@ -421,17 +540,16 @@ public class GraphActivity extends AppCompatActivity implements GLSurfaceView.Re
                 axesRenderer.draw(viewmtx, projmtx, colorCorrectionRgba);
 
                 boolean scaleEnded = tapHelper.fetchScaleEnded();
+                // Rebuilds run in the background; each renderer keeps drawing its current mesh
+                // until the new one is ready
                 if (parametricVisible) {
+                    if (updateParametricGraph || scaleEnded) {
+                        buildParametricMesh(scaleFactor);
+                    }
                     if (isParametricSurface) {
-                        if (updateParametricGraph || scaleEnded) {
-                            surfaceObject.updateSurface(parametricComponents, tBounds, uBounds, scaleFactor);
-                        }
                         surfaceObject.updateModelMatrix(anchorMatrix, scaleFactor);
                         surfaceObject.draw(viewmtx, projmtx, colorCorrectionRgba);
                     } else {
-                        if (updateParametricGraph || scaleEnded) {
-                            curveObject.updateCurve(parametricComponents, tBounds, scaleFactor);
-                        }
                         curveObject.updateModelMatrix(anchorMatrix, scaleFactor);
                         curveObject.draw(viewmtx, projmtx, colorCorrectionRgba);
                     }
@@ -439,7 +557,7 @@ public class GraphActivity extends AppCompatActivity implements GLSurfaceView.Re
 
                 if (functionVisible) {
                     if (updateFunctionGraph || scaleEnded) {
-                        functionObject.updateSurface(zFunction, xBounds, yBounds, scaleFactor);
+                        buildFunctionMesh(scaleFactor);
                     }
                     functionObject.updateModelMatrix(anchorMatrix, scaleFactor);
                     functionObject.draw(viewmtx, projmtx, colorCorrectionRgba);
@@ -1,10 +1,14 @@
 package com.pluscubed.graph;
 
-import org.mariuszgromada.math.mxparser.Expression;
+import com.pluscubed.graph.math.CompiledExpression;
 
 public abstract class Utils {
 
+    /**
+     * Evaluates a constant expression such as a bound. It's folded to its value when compiled;
+     * only syntax the compiler doesn't support is left to mXparser.
+     */
     public static float evaluateExpression(String exp) {
-        return (float) new Expression(exp).calculate();
+        return (float) CompiledExpression.compile(exp).newEvaluator().evaluate(0, 0);
     }
 }
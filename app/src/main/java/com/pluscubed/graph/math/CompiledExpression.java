@@ -0,0 +1,53 @@
+package com.pluscubed.graph.math;
+
+/**
+ * An expression parsed once ahead of sampling. Instances are immutable and may be shared
+ * between threads; evaluation goes through per-thread {@link Evaluator}s.
+ */
+public abstract class CompiledExpression {
+
+    /**
+     * Compiles {@code expression} over the given variable names (at most two). Expressions
+     * outside the supported subset fall back to mXparser, so the result always evaluates the
+     * same way {@code new Expression(expression, arguments).calculate()} would, up to the
+     * rounding of sums and products rearranged by {@link Simplifier} and {@link Separable}.
+     */
+    public static CompiledExpression compile(String expression, String... variables) {
+        try {
+            return Program.compile(prepare(expression, variables), variables.length);
+        } catch (IllegalArgumentException e) {
+            return new MxparserExpression(expression, variables);
+        }
+    }
+
+    /**
+     * Compiles several expressions over the same variables into one program, e.g. the components
+     * of a parametric graph, so subexpressions they share are evaluated once. If any of them is
+     * outside the supported subset, each is compiled on its own instead.
+     */
+    public static CompiledExpression compileAll(String[] expressions, String... variables) {
+        try {
+            Node[] roots = new Node[expressions.length];
+            for (int i = 0; i < expressions.length; i++) {
+                roots[i] = prepare(expressions[i], variables);
+            }
+            return Program.compile(roots, variables.length);
+        } catch (IllegalArgumentException e) {
+            CompiledExpression[] parts = new CompiledExpression[expressions.length];
+            for (int i = 0; i < expressions.length; i++) {
+                parts[i] = compile(expressions[i], variables);
+            }
+            return new ExpressionList(parts);
+        }
+    }
+
+    public abstract Evaluator newEvaluator();
+
+    /**
+     * Parses and rewrites an expression for compiling: simplified first, then regrouped by the
+     * variables its terms depend on.
+     */
+    private static Node prepare(String expression, String[] variables) {
+        return Separable.separate(Simplifier.simplify(Parser.parse(expression, variables)));
+    }
+}
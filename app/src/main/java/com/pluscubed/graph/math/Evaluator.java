@@ -0,0 +1,117 @@
+package com.pluscubed.graph.math;
+
+/**
+ * Evaluates a {@link CompiledExpression} at a point. Evaluators hold mutable scratch state, so
+ * each thread needs its own instance from {@link CompiledExpression#newEvaluator()}.
+ * <p>
+ * Expressions compiled together by {@link CompiledExpression#compileAll} have a result each.
+ * The single-result methods give the first; the batch methods that take one output array per
+ * result give them all from one pass.
+ */
+public interface Evaluator {
+    // Relative step of the finite difference fallback, about the square root of double epsilon
+    double DIFFERENCE_STEP = 1.5e-8;
+
+    // Where a result is defined over a rectangle, see evaluateBounds
+    int DEFINED = 0;
+    int MAYBE_UNDEFINED = 1;
+    int UNDEFINED = 2;
+
+    /**
+     * @param a value of the first variable
+     * @param b value of the second variable, ignored for single-variable expressions
+     */
+    double evaluate(double a, double b);
+
+    /**
+     * Evaluates {@code count} points at once, {@code out[i] = f(a[i], b[i])}. Implementations
+     * run each operation over the whole batch, which is much cheaper than evaluating point by
+     * point.
+     *
+     * @param b values of the second variable; ignored (and may be null) for single-variable
+     *          expressions
+     */
+    default void evaluate(double[] a, double[] b, double[] out, int count) {
+        for (int i = 0; i < count; i++) {
+            out[i] = evaluate(a[i], b != null ? b[i] : 0);
+        }
+    }
+
+    /**
+     * Evaluates a row of a grid, {@code out[i] = f(a[i], b)}, with the same result as
+     * {@link #evaluate(double[], double[], double[], int)} over a column of {@code b}.
+     * <p>
+     * Compiled expressions hoist what doesn't vary along the row: parts that only depend on
+     * {@code b} are evaluated once per row, and parts that only depend on {@code a} once for every
+     * row that passes the same {@code a} array and count, so its contents mustn't change between
+     * those rows.
+     */
+    default void evaluateRow(double[] a, double b, double[] out, int count) {
+        for (int i = 0; i < count; i++) {
+            out[i] = evaluate(a[i], b);
+        }
+    }
+
+    /**
+     * Evaluates {@code count} points like {@link #evaluate(double[], double[], double[], int)},
+     * along with the partial derivatives with respect to both variables, {@code da[i]} and
+     * {@code db[i]}. Compiled expressions carry the derivatives through every operation in the
+     * same pass; the default estimates them with forward differences, two more evaluations.
+     */
+    default void evaluateGradient(double[] a, double[] b, double[] out, double[] da, double[] db, int count) {
+        evaluate(a, b, out, count);
+        for (int i = 0; i < count; i++) {
+            double bi = b != null ? b[i] : 0;
+            double ha = DIFFERENCE_STEP * Math.max(1, Math.abs(a[i]));
+            double hb = DIFFERENCE_STEP * Math.max(1, Math.abs(bi));
+            da[i] = (evaluate(a[i] + ha, bi) - out[i]) / ha;
+            db[i] = (evaluate(a[i], bi + hb) - out[i]) / hb;
+        }
+    }
+
+    default int resultCount() {
+        return 1;
+    }
+
+    /**
+     * {@link #evaluate(double[], double[], double[], int)} of every result, into {@code out[r]}.
+     */
+    default void evaluate(double[] a, double[] b, double[][] out, int count) {
+        evaluate(a, b, out[0], count);
+    }
+
+    /**
+     * {@link #evaluateRow(double[], double, double[], int)} of every result, into {@code out[r]}.
+     */
+    default void evaluateRow(double[] a, double b, double[][] out, int count) {
+        evaluateRow(a, b, out[0], count);
+    }
+
+    /**
+     * {@link #evaluateGradient(double[], double[], double[], double[], double[], int)} of every
+     * result, into {@code out[r]}, {@code da[r]} and {@code db[r]}.
+     */
+    default void evaluateGradient(double[] a, double[] b, double[][] out, double[][] da, double[][] db,
+                                  int count) {
+        evaluateGradient(a, b, out[0], da[0], db[0], count);
+    }
+
+    /**
+     * Bounds every result over the rectangle {@code [aMin, aMax] x [bMin, bMax]}: wherever
+     * result {@code r} is defined there, it's within {@code [min[r], max[r]]}.
+     * {@code defined[r]} is {@link #DEFINED} if it's defined (not NaN) everywhere,
+     * {@link #UNDEFINED} if it's NaN everywhere, and {@link #MAYBE_UNDEFINED} otherwise.
+     * <p>
+     * Compiled expressions use interval arithmetic, so the bounds are guaranteed but can be
+     * wider than the actual range, more so for larger rectangles. The default knows nothing and
+     * gives the whole real line.
+     */
+    default void evaluateBounds(double aMin, double aMax, double bMin, double bMax,
+                                double[] min, double[] max, int[] defined) {
+        for (int r = 0; r < resultCount(); r++) {
+            min[r] = Double.NEGATIVE_INFINITY;
+            max[r] = Double.POSITIVE_INFINITY;
+            defined[r] = MAYBE_UNDEFINED;
+        }
+    }
+}
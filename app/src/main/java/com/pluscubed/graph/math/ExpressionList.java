@@ -0,0 +1,85 @@
+package com.pluscubed.graph.math;
+
+/**
+ * Expressions compiled one by one but evaluated together, for when {@link
+ * CompiledExpression#compileAll} can't compile them into one program.
+ */
+final class ExpressionList extends CompiledExpression {
+    private final CompiledExpression[] parts;
+
+    ExpressionList(CompiledExpression[] parts) {
+        this.parts = parts;
+    }
+
+    @Override
+    public Evaluator newEvaluator() {
+        final Evaluator[] evaluators = new Evaluator[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            evaluators[i] = parts[i].newEvaluator();
+        }
+
+        return new Evaluator() {
+            @Override
+            public double evaluate(double a, double b) {
+                return evaluators[0].evaluate(a, b);
+            }
+
+            @Override
+            public void evaluate(double[] a, double[] b, double[] out, int count) {
+                evaluators[0].evaluate(a, b, out, count);
+            }
+
+            @Override
+            public void evaluateRow(double[] a, double b, double[] out, int count) {
+                evaluators[0].evaluateRow(a, b, out, count);
+            }
+
+            @Override
+            public void evaluateGradient(double[] a, double[] b, double[] out, double[] da, double[] db,
+                                         int count) {
+                evaluators[0].evaluateGradient(a, b, out, da, db, count);
+            }
+
+            @Override
+            public int resultCount() {
+                return evaluators.length;
+            }
+
+            @Override
+            public void evaluate(double[] a, double[] b, double[][] out, int count) {
+                for (int r = 0; r < out.length; r++) {
+                    evaluators[r].evaluate(a, b, out[r], count);
+                }
+            }
+
+            @Override
+            public void evaluateRow(double[] a, double b, double[][] out, int count) {
+                for (int r = 0; r < out.length; r++) {
+                    evaluators[r].evaluateRow(a, b, out[r], count);
+                }
+            }
+
+            @Override
+            public void evaluateGradient(double[] a, double[] b, double[][] out, double[][] da,
+                                         double[][] db, int count) {
+                for (int r = 0; r < out.length; r++) {
+                    evaluators[r].evaluateGradient(a, b, out[r], da[r], db[r], count);
+                }
+            }
+
+            @Override
+            public void evaluateBounds(double aMin, double aMax, double bMin, double bMax,
+                                       double[] min, double[] max, int[] defined) {
+                double[] partMin = new double[1];
+                double[] partMax = new double[1];
+                int[] partDefined = new int[1];
+                for (int r = 0; r < evaluators.length; r++) {
+                    evaluators[r].evaluateBounds(aMin, aMax, bMin, bMax, partMin, partMax, partDefined);
+                    min[r] = partMin[0];
+                    max[r] = partMax[0];
+                    defined[r] = partDefined[0];
+                }
+            }
+        };
+    }
+}
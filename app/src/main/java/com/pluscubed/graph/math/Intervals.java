@@ -0,0 +1,389 @@
+package com.pluscubed.graph.math;
+
+/**
+ * Interval forms of the {@link Op} operators, for bounding a {@link Program} over a rectangle of
+ * its variables. Each register holds an interval {@code [lo, hi]} that contains every value it
+ * can take where it's defined, and whether it's defined there: everywhere, maybe not everywhere,
+ * or nowhere (always NaN).
+ * <p>
+ * Enclosures are conservative, and anything that can't be bounded cheaply is the whole real
+ * line. Bounds are rounded outward by an ulp after arithmetic, which is correctly rounded. Results
+ * of {@link Math}'s functions are only documented to within an ulp of the exact value, 2.5 ulps
+ * for sinh, cosh and tanh, and log2 rounds twice, so those are widened by enough ulps to cover a
+ * bound and a sampled value being off in opposite directions: see {@link #steps}.
+ */
+final class Intervals {
+    static final int DEFINED = Evaluator.DEFINED;
+    static final int MAYBE_UNDEFINED = Evaluator.MAYBE_UNDEFINED;
+    static final int UNDEFINED = Evaluator.UNDEFINED;
+
+    private static final double HALF_PI = Math.PI / 2;
+    private static final double TWO_PI = 2 * Math.PI;
+    // Magnitude past which doubles are too sparse to tell where the extremes and poles are
+    private static final double LARGE = 1e15;
+
+    private final double[] lo;
+    private final double[] hi;
+    private final int[] defined;
+
+    /**
+     * Works on the given registers; the operands of each instruction have to be set before it.
+     */
+    Intervals(double[] lo, double[] hi, int[] defined) {
+        this.lo = lo;
+        this.hi = hi;
+        this.defined = defined;
+    }
+
+    void apply(int op, int a, int b, int dst) {
+        if (defined[a] == UNDEFINED || (Op.isBinary(op) && defined[b] == UNDEFINED)) {
+            // NaN in, NaN out, for every operator
+            set(dst, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, UNDEFINED);
+            return;
+        }
+        int operands = Op.isBinary(op) ? Math.max(defined[a], defined[b]) : defined[a];
+        double al = lo[a], ah = hi[a];
+        double bl = lo[b], bh = hi[b];
+
+        switch (op) {
+            case Op.ADD:
+                sum(dst, al + bl, ah + bh, al, ah, bl, bh, operands);
+                break;
+            case Op.SUB:
+                sum(dst, al - bh, ah - bl, al, ah, bl, bh, operands);
+                break;
+            case Op.MUL:
+                if (a == b) {
+                    // x * x, from x^2 after simplifying, can't be negative
+                    square(dst, al, ah, operands);
+                } else {
+                    product(dst, al, ah, bl, bh, operands);
+                }
+                break;
+            case Op.DIV:
+                quotient(dst, al, ah, bl, bh, operands);
+                break;
+            case Op.POW:
+                power(dst, al, ah, bl, bh, operands);
+                break;
+            case Op.LOG:
+                // ln(b) / ln(a)
+                logarithm(dst, Op.LN, bl, bh, operands);
+                double numeratorLo = lo[dst], numeratorHi = hi[dst];
+                int numerator = defined[dst];
+                logarithm(dst, Op.LN, al, ah, operands);
+                quotient(dst, numeratorLo, numeratorHi, lo[dst], hi[dst], Math.max(numerator, defined[dst]));
+                break;
+            case Op.MIN:
+                set(dst, Math.min(al, bl), Math.min(ah, bh), operands);
+                break;
+            case Op.MAX:
+                set(dst, Math.max(al, bl), Math.max(ah, bh), operands);
+                break;
+            case Op.NEG:
+                set(dst, -ah, -al, operands);
+                break;
+            case Op.SIN:
+            case Op.COS:
+                periodic(dst, op, al, ah, operands);
+                break;
+            case Op.TAN:
+                tangent(dst, al, ah, operands);
+                break;
+            case Op.COT:
+                tangent(dst, al, ah, operands);
+                inverse(dst);
+                break;
+            case Op.SEC:
+                periodic(dst, Op.COS, al, ah, operands);
+                inverse(dst);
+                break;
+            case Op.CSC:
+                periodic(dst, Op.SIN, al, ah, operands);
+                inverse(dst);
+                break;
+            case Op.ASIN:
+            case Op.ACOS:
+                // Defined on [-1, 1]
+                if (ah < -1 || al > 1) {
+                    set(dst, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, UNDEFINED);
+                    break;
+                }
+                int inDomain = al < -1 || ah > 1 ? MAYBE_UNDEFINED : operands;
+                double l = Math.max(al, -1), h = Math.min(ah, 1);
+                if (op == Op.ASIN) {
+                    widened(dst, Math.asin(l), Math.asin(h), steps(op), inDomain);
+                } else {
+                    widened(dst, Math.acos(h), Math.acos(l), steps(op), inDomain);
+                }
+                break;
+            case Op.ATAN:
+                widened(dst, Math.atan(al), Math.atan(ah), steps(op), operands);
+                break;
+            case Op.SINH:
+                widened(dst, Math.sinh(al), Math.sinh(ah), steps(op), operands);
+                break;
+            case Op.COSH:
+                if (al <= 0 && ah >= 0) {
+                    widened(dst, 1, Math.cosh(Math.max(-al, ah)), steps(op), operands);
+                } else {
+                    double c1 = Math.cosh(al), c2 = Math.cosh(ah);
+                    widened(dst, Math.min(c1, c2), Math.max(c1, c2), steps(op), operands);
+                }
+                break;
+            case Op.TANH:
+                widened(dst, Math.tanh(al), Math.tanh(ah), steps(op), operands);
+                break;
+            case Op.EXP:
+                widened(dst, Math.exp(al), Math.exp(ah), steps(op), operands);
+                break;
+            case Op.LN:
+            case Op.LOG2:
+            case Op.LOG10:
+                logarithm(dst, op, al, ah, operands);
+                break;
+            case Op.SQRT:
+                if (ah < 0) {
+                    set(dst, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, UNDEFINED);
+                } else {
+                    rounded(dst, Math.sqrt(Math.max(al, 0)), Math.sqrt(ah), al < 0 ? MAYBE_UNDEFINED : operands);
+                }
+                break;
+            case Op.ABS:
+                if (al <= 0 && ah >= 0) {
+                    set(dst, 0, Math.max(-al, ah), operands);
+                } else {
+                    set(dst, Math.min(Math.abs(al), Math.abs(ah)), Math.max(Math.abs(al), Math.abs(ah)), operands);
+                }
+                break;
+            case Op.SGN:
+                set(dst, Math.signum(al), Math.signum(ah), operands);
+                break;
+            case Op.FLOOR:
+                set(dst, Math.floor(al), Math.floor(ah), operands);
+                break;
+            case Op.CEIL:
+                set(dst, Math.ceil(al), Math.ceil(ah), operands);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown opcode " + op);
+        }
+    }
+
+    private void set(int dst, double l, double h, int defined) {
+        lo[dst] = l;
+        hi[dst] = h;
+        this.defined[dst] = defined;
+    }
+
+    /**
+     * Sets an interval from inexact bounds, one ulp wider each way.
+     */
+    private void rounded(int dst, double l, double h, int defined) {
+        set(dst, Math.nextDown(l), Math.nextUp(h), defined);
+    }
+
+    private void widened(int dst, double l, double h, int steps, int defined) {
+        for (int i = 0; i < steps; i++) {
+            l = Math.nextDown(l);
+            h = Math.nextUp(h);
+        }
+        set(dst, l, h, defined);
+    }
+
+    /**
+     * Ulps to widen a result of {@code op} by. A bound and a sampled value can each be off by the
+     * documented error, in opposite directions, and an ulp just above a power of two is twice the
+     * one below, so that's four times the error.
+     */
+    private static int steps(int op) {
+        switch (op) {
+            case Op.SINH:
+            case Op.COSH:
+            case Op.TANH:
+                // 2.5 ulps
+                return 10;
+            case Op.LOG2:
+                // Math.log, then divided by a rounded ln 2: 2 ulps
+                return 8;
+            default:
+                // 1 ulp
+                return 4;
+        }
+    }
+
+    private void whole(int dst, int defined) {
+        set(dst, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, defined);
+    }
+
+    private static boolean isFinite(double l, double h) {
+        return !Double.isInfinite(l) && !Double.isInfinite(h);
+    }
+
+    private void sum(int dst, double l, double h, double al, double ah, double bl, double bh, int defined) {
+        if (!isFinite(al, ah) || !isFinite(bl, bh)) {
+            // inf - inf is NaN
+            whole(dst, MAYBE_UNDEFINED);
+        } else {
+            rounded(dst, l, h, defined);
+        }
+    }
+
+    private void product(int dst, double al, double ah, double bl, double bh, int defined) {
+        if (!isFinite(al, ah) || !isFinite(bl, bh)) {
+            // 0 * inf is NaN
+            whole(dst, MAYBE_UNDEFINED);
+            return;
+        }
+        double p1 = al * bl, p2 = al * bh, p3 = ah * bl, p4 = ah * bh;
+        rounded(dst, Math.min(Math.min(p1, p2), Math.min(p3, p4)),
+                Math.max(Math.max(p1, p2), Math.max(p3, p4)), defined);
+    }
+
+    private void square(int dst, double al, double ah, int defined) {
+        double l = al * al, h = ah * ah;
+        if (al <= 0 && ah >= 0) {
+            // The bottom is an exact zero
+            set(dst, 0, Math.nextUp(Math.max(l, h)), defined);
+        } else {
+            rounded(dst, Math.min(l, h), Math.max(l, h), defined);
+        }
+    }
+
+    /**
+     * Division as {@link Op#div}, which is NaN for a zero divisor.
+     */
+    private void quotient(int dst, double al, double ah, double bl, double bh, int defined) {
+        if (bl == 0 && bh == 0) {
+            whole(dst, UNDEFINED);
+        } else if (bl <= 0 && bh >= 0) {
+            whole(dst, MAYBE_UNDEFINED);
+        } else if (!isFinite(al, ah) || !isFinite(bl, bh)) {
+            whole(dst, MAYBE_UNDEFINED);
+        } else {
+            double q1 = al / bl, q2 = al / bh, q3 = ah / bl, q4 = ah / bh;
+            rounded(dst, Math.min(Math.min(q1, q2), Math.min(q3, q4)),
+                    Math.max(Math.max(q1, q2), Math.max(q3, q4)), defined);
+        }
+    }
+
+    /**
+     * Power as {@link Op#pow}. For a fixed exponent it's monotonic on either side of zero, and
+     * for a non-negative base it's monotonic in each operand, so the extremes are at the corners.
+     */
+    private void power(int dst, double al, double ah, double bl, double bh, int defined) {
+        if (!isFinite(al, ah) || !isFinite(bl, bh)) {
+            whole(dst, MAYBE_UNDEFINED);
+            return;
+        }
+        if (al >= 0) {
+            double p1 = Op.pow(al, bl), p2 = Op.pow(al, bh), p3 = Op.pow(ah, bl), p4 = Op.pow(ah, bh);
+            widened(dst, Math.min(Math.min(p1, p2), Math.min(p3, p4)),
+                    Math.max(Math.max(p1, p2), Math.max(p3, p4)), steps(Op.POW), defined);
+            return;
+        }
+        if (bl != bh) {
+            // Negative bases are only defined for some exponents
+            whole(dst, MAYBE_UNDEFINED);
+            return;
+        }
+
+        // Negative bases with a fixed exponent are either never defined or all defined
+        double b = bl;
+        boolean negativeDefined = !Double.isNaN(Op.pow(-2, b));
+        double l = Double.POSITIVE_INFINITY, h = Double.NEGATIVE_INFINITY;
+        if (negativeDefined) {
+            // Up to zero from below
+            double end = Math.min(ah, -0.0);
+            double p1 = Op.pow(al, b), p2 = Op.pow(end, b);
+            l = Math.min(p1, p2);
+            h = Math.max(p1, p2);
+        } else if (ah < 0) {
+            whole(dst, UNDEFINED);
+            return;
+        }
+        if (ah >= 0) {
+            double p1 = Op.pow(0.0, b), p2 = Op.pow(ah, b);
+            l = Math.min(l, Math.min(p1, p2));
+            h = Math.max(h, Math.max(p1, p2));
+        }
+        widened(dst, l, h, steps(Op.POW), negativeDefined ? defined : MAYBE_UNDEFINED);
+    }
+
+    /**
+     * A logarithm operator over {@code [al, ah]}, NaN below zero.
+     */
+    private void logarithm(int dst, int op, double al, double ah, int defined) {
+        if (ah < 0) {
+            whole(dst, UNDEFINED);
+        } else {
+            widened(dst, Op.apply(op, Math.max(al, 0), 0), Op.apply(op, ah, 0), steps(op),
+                    al < 0 ? MAYBE_UNDEFINED : defined);
+        }
+    }
+
+    /**
+     * Sine or cosine over {@code [al, ah]}: the endpoints, and 1 or -1 if the interval reaches
+     * an extreme in between.
+     */
+    private void periodic(int dst, int op, double al, double ah, int defined) {
+        if (!isFinite(al, ah)) {
+            set(dst, -1, 1, MAYBE_UNDEFINED);
+            return;
+        }
+        if (ah - al >= TWO_PI || Math.max(Math.abs(al), Math.abs(ah)) >= LARGE) {
+            set(dst, -1, 1, defined);
+            return;
+        }
+        double v1 = Op.apply(op, al, 0), v2 = Op.apply(op, ah, 0);
+        double l = Math.min(v1, v2), h = Math.max(v1, v2);
+        for (int i = 0; i < steps(op); i++) {
+            l = Math.nextDown(l);
+            h = Math.nextUp(h);
+        }
+        // Extremes at (k + phase) * pi, maxima for even k. The slack makes sure one just past
+        // an end isn't missed because of rounding.
+        double phase = op == Op.SIN ? 0.5 : 0;
+        double slack = 1e-9 * Math.max(1, Math.max(Math.abs(al), Math.abs(ah)));
+        for (double k = Math.ceil((al - slack) / Math.PI - phase); (k + phase) * Math.PI <= ah + slack; k++) {
+            if (k % 2 == 0) {
+                h = 1;
+            } else {
+                l = -1;
+            }
+        }
+        set(dst, Math.max(l, -1), Math.min(h, 1), defined);
+    }
+
+    /**
+     * Tangent over {@code [al, ah]}, the whole line if it could reach a pole.
+     */
+    private void tangent(int dst, double al, double ah, int defined) {
+        if (!isFinite(al, ah)) {
+            whole(dst, MAYBE_UNDEFINED);
+            return;
+        }
+        double slack = 1e-9 * Math.max(1, Math.max(Math.abs(al), Math.abs(ah)));
+        double pole = Math.ceil((al - slack - HALF_PI) / Math.PI) * Math.PI + HALF_PI;
+        if (ah - al >= Math.PI || Math.max(Math.abs(al), Math.abs(ah)) >= LARGE || pole <= ah + slack) {
+            whole(dst, defined);
+        } else {
+            widened(dst, Math.tan(al), Math.tan(ah), steps(Op.TAN), defined);
+        }
+    }
+
+    /**
+     * Replaces the interval in {@code dst} with its inverse as {@link Op#inverse}, which is NaN
+     * for zero.
+     */
+    private void inverse(int dst) {
+        double l = lo[dst], h = hi[dst];
+        if (l == 0 && h == 0) {
+            whole(dst, UNDEFINED);
+        } else if (l <= 0 && h >= 0) {
+            whole(dst, MAYBE_UNDEFINED);
+        } else {
+            rounded(dst, 1 / h, 1 / l, defined[dst]);
+        }
+    }
+}
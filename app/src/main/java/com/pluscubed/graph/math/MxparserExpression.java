@@ -0,0 +1,37 @@
+package com.pluscubed.graph.math;
+
+import org.mariuszgromada.math.mxparser.Argument;
+import org.mariuszgromada.math.mxparser.Expression;
+
+/**
+ * Fallback for expressions the compiler doesn't understand; interprets with mXparser.
+ */
+final class MxparserExpression extends CompiledExpression {
+    private final String expression;
+    private final String[] variables;
+
+    MxparserExpression(String expression, String[] variables) {
+        this.expression = expression;
+        this.variables = variables.clone();
+    }
+
+    @Override
+    public Evaluator newEvaluator() {
+        // mXparser objects are mutable, so every evaluator gets its own
+        final Argument[] arguments = new Argument[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            arguments[i] = new Argument(variables[i]);
+        }
+        final Expression mxExpression = new Expression(expression, arguments);
+
+        return (a, b) -> {
+            if (arguments.length > 0) {
+                arguments[0].setArgumentValue(a);
+            }
+            if (arguments.length > 1) {
+                arguments[1].setArgumentValue(b);
+            }
+            return mxExpression.calculate();
+        };
+    }
+}
@@ -0,0 +1,67 @@
+package com.pluscubed.graph.math;
+
+import java.util.Objects;
+
+/**
+ * Immutable expression tree node. Nodes are equal when their trees are, so equal subtrees can be
+ * shared when compiling.
+ */
+final class Node {
+    final int op;
+    // Value of a CONST node
+    final double value;
+    // Variable index of a VAR node
+    final int variable;
+    final Node a;
+    final Node b;
+    // Computed once, every subtree is hashed when compiling
+    private final int hash;
+
+    private Node(int op, double value, int variable, Node a, Node b) {
+        this.op = op;
+        this.value = value;
+        this.variable = variable;
+        this.a = a;
+        this.b = b;
+
+        int hash = 31 * op + Double.hashCode(value);
+        hash = 31 * hash + variable;
+        hash = 31 * hash + (a != null ? a.hash : 0);
+        hash = 31 * hash + (b != null ? b.hash : 0);
+        this.hash = hash;
+    }
+
+    static Node constant(double value) {
+        return new Node(Op.CONST, value, -1, null, null);
+    }
+
+    static Node variable(int index) {
+        return new Node(Op.VAR, 0, index, null, null);
+    }
+
+    static Node unary(int op, Node a) {
+        return new Node(op, 0, -1, a, null);
+    }
+
+    static Node binary(int op, Node a, Node b) {
+        return new Node(op, 0, -1, a, b);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Node)) return false;
+        Node node = (Node) o;
+        return hash == node.hash
+                && op == node.op
+                && Double.compare(value, node.value) == 0
+                && variable == node.variable
+                && Objects.equals(a, node.a)
+                && Objects.equals(b, node.b);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
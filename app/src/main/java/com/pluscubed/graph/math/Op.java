@@ -0,0 +1,335 @@
+package com.pluscubed.graph.math;
+
+/**
+ * Opcodes shared by the expression tree and the compiled {@link Program}, along with their
+ * scalar semantics. Edge cases (division by zero, odd roots of negative numbers, ...) follow
+ * mXparser's {@code MathFunctions} so compiled and interpreted graphs look the same.
+ */
+final class Op {
+    static final int CONST = 0;
+    static final int VAR = 1;
+
+    // Binary
+    static final int ADD = 2;
+    static final int SUB = 3;
+    static final int MUL = 4;
+    static final int DIV = 5;
+    static final int POW = 6;
+    static final int LOG = 7;
+    static final int MIN = 8;
+    static final int MAX = 9;
+
+    // Unary
+    static final int NEG = 10;
+    static final int SIN = 11;
+    static final int COS = 12;
+    static final int TAN = 13;
+    static final int COT = 14;
+    static final int SEC = 15;
+    static final int CSC = 16;
+    static final int ASIN = 17;
+    static final int ACOS = 18;
+    static final int ATAN = 19;
+    static final int SINH = 20;
+    static final int COSH = 21;
+    static final int TANH = 22;
+    static final int EXP = 23;
+    static final int LN = 24;
+    static final int LOG2 = 25;
+    static final int LOG10 = 26;
+    static final int SQRT = 27;
+    static final int ABS = 28;
+    static final int SGN = 29;
+    static final int FLOOR = 30;
+    static final int CEIL = 31;
+
+    // mXparser's BinaryRelations default epsilon, used when recognizing odd roots
+    private static final double EPSILON = 1e-14;
+
+    private static final double LN_2 = Math.log(2);
+    private static final double LN_10 = Math.log(10);
+
+    private Op() {
+    }
+
+    static boolean isBinary(int op) {
+        return op >= ADD && op <= MAX;
+    }
+
+    static double apply(int op, double a, double b) {
+        switch (op) {
+            case ADD:
+                return a + b;
+            case SUB:
+                return a - b;
+            case MUL:
+                return a * b;
+            case DIV:
+                return div(a, b);
+            case POW:
+                return pow(a, b);
+            case LOG:
+                return log(a, b);
+            case MIN:
+                return Math.min(a, b);
+            case MAX:
+                return Math.max(a, b);
+            case NEG:
+                return -a;
+            case SIN:
+                return Math.sin(a);
+            case COS:
+                return Math.cos(a);
+            case TAN:
+                return Math.tan(a);
+            case COT:
+                return inverse(Math.tan(a));
+            case SEC:
+                return inverse(Math.cos(a));
+            case CSC:
+                return inverse(Math.sin(a));
+            case ASIN:
+                return Math.asin(a);
+            case ACOS:
+                return Math.acos(a);
+            case ATAN:
+                return Math.atan(a);
+            case SINH:
+                return Math.sinh(a);
+            case COSH:
+                return Math.cosh(a);
+            case TANH:
+                return Math.tanh(a);
+            case EXP:
+                return Math.exp(a);
+            case LN:
+                return Math.log(a);
+            case LOG2:
+                return Math.log(a) / LN_2;
+            case LOG10:
+                return Math.log10(a);
+            case SQRT:
+                return Math.sqrt(a);
+            case ABS:
+                return Math.abs(a);
+            case SGN:
+                return Math.signum(a);
+            case FLOOR:
+                return Math.floor(a);
+            case CEIL:
+                return Math.ceil(a);
+            default:
+                throw new IllegalArgumentException("Unknown opcode " + op);
+        }
+    }
+
+    /**
+     * Column form of {@link #apply(int, double, double)}: {@code dst[i] = op(a[i], b[i])} for
+     * the first {@code count} elements. The common operators get their own tight loops.
+     */
+    static void applyColumn(int op, double[] a, double[] b, double[] dst, int count) {
+        switch (op) {
+            case ADD:
+                for (int i = 0; i < count; i++) {
+                    dst[i] = a[i] + b[i];
+                }
+                break;
+            case SUB:
+                for (int i = 0; i < count; i++) {
+                    dst[i] = a[i] - b[i];
+                }
+                break;
+            case MUL:
+                for (int i = 0; i < count; i++) {
+                    dst[i] = a[i] * b[i];
+                }
+                break;
+            case DIV:
+                for (int i = 0; i < count; i++) {
+                    dst[i] = div(a[i], b[i]);
+                }
+                break;
+            case POW:
+                for (int i = 0; i < count; i++) {
+                    dst[i] = pow(a[i], b[i]);
+                }
+                break;
+            case NEG:
+                for (int i = 0; i < count; i++) {
+                    dst[i] = -a[i];
+                }
+                break;
+            case SIN:
+                for (int i = 0; i < count; i++) {
+                    dst[i] = Math.sin(a[i]);
+                }
+                break;
+            case COS:
+                for (int i = 0; i < count; i++) {
+                    dst[i] = Math.cos(a[i]);
+                }
+                break;
+            case EXP:
+                for (int i = 0; i < count; i++) {
+                    dst[i] = Math.exp(a[i]);
+                }
+                break;
+            case SQRT:
+                for (int i = 0; i < count; i++) {
+                    dst[i] = Math.sqrt(a[i]);
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    dst[i] = apply(op, a[i], b[i]);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Partial derivative of {@code op} with respect to its first ({@code operand} 0) or second
+     * operand, at {@code a} and {@code b} where it evaluated to {@code value}.
+     */
+    static double partial(int op, int operand, double a, double b, double value) {
+        switch (op) {
+            case ADD:
+                return 1;
+            case SUB:
+                return operand == 0 ? 1 : -1;
+            case MUL:
+                return operand == 0 ? b : a;
+            case DIV:
+                return operand == 0 ? div(1, b) : -div(value, b);
+            case POW:
+                if (operand == 0) {
+                    if (b == 0) {
+                        return 0;
+                    }
+                    // From the value, so odd roots of negative bases follow pow()
+                    return a != 0 ? b * value / a : b * Math.pow(a, b - 1);
+                }
+                return a > 0 ? value * Math.log(a) : a == 0 ? 0 : Double.NaN;
+            case LOG:
+                // log(a, b) is ln(b) / ln(a)
+                return operand == 0 ? -value / (a * Math.log(a)) : 1 / (b * Math.log(a));
+            case MIN:
+                return (a <= b) == (operand == 0) ? 1 : 0;
+            case MAX:
+                return (a >= b) == (operand == 0) ? 1 : 0;
+            case NEG:
+                return -1;
+            case SIN:
+                return Math.cos(a);
+            case COS:
+                return -Math.sin(a);
+            case TAN:
+                return 1 + value * value;
+            case COT:
+                return -(1 + value * value);
+            case SEC:
+                return value * Math.tan(a);
+            case CSC:
+                return -value / Math.tan(a);
+            case ASIN:
+                return 1 / Math.sqrt(1 - a * a);
+            case ACOS:
+                return -1 / Math.sqrt(1 - a * a);
+            case ATAN:
+                return 1 / (1 + a * a);
+            case SINH:
+                return Math.cosh(a);
+            case COSH:
+                return Math.sinh(a);
+            case TANH:
+                return 1 - value * value;
+            case EXP:
+                return value;
+            case LN:
+                return 1 / a;
+            case LOG2:
+                return 1 / (a * LN_2);
+            case LOG10:
+                return 1 / (a * LN_10);
+            case SQRT:
+                return 0.5 / value;
+            case ABS:
+                return Math.signum(a);
+            case SGN:
+            case FLOOR:
+            case CEIL:
+                return 0;
+            default:
+                throw new IllegalArgumentException("Unknown opcode " + op);
+        }
+    }
+
+    /**
+     * Forward-mode derivatives of a column of {@code op}: given the values {@code a} and
+     * {@code b} of the operands and their derivatives along two directions, writes the result's
+     * derivatives along both. The second operand is ignored for unary operators.
+     */
+    static void gradientColumn(int op, double[] a, double[] b, double[] value,
+                               double[] aDx, double[] aDy, double[] bDx, double[] bDy,
+                               double[] dx, double[] dy, int count) {
+        boolean binary = isBinary(op);
+        for (int i = 0; i < count; i++) {
+            if (Double.isNaN(value[i])) {
+                // Undefined here, however it got there
+                dx[i] = Double.NaN;
+                dy[i] = Double.NaN;
+                continue;
+            }
+            double partialA = partial(op, 0, a[i], b[i], value[i]);
+            dx[i] = chain(partialA, aDx[i]);
+            dy[i] = chain(partialA, aDy[i]);
+            if (binary) {
+                double partialB = partial(op, 1, a[i], b[i], value[i]);
+                dx[i] += chain(partialB, bDx[i]);
+                dy[i] += chain(partialB, bDy[i]);
+            }
+        }
+    }
+
+    /**
+     * One term of the chain rule. An operand that doesn't depend on the variable contributes
+     * nothing, even where the operator's partial isn't finite, e.g. x^2 at its exponent.
+     */
+    private static double chain(double partial, double derivative) {
+        return derivative == 0 ? 0 : partial * derivative;
+    }
+
+    static double div(double a, double b) {
+        return b == 0 ? Double.NaN : a / b;
+    }
+
+    static double inverse(double a) {
+        return a == 0 ? Double.NaN : 1 / a;
+    }
+
+    /**
+     * Logarithm of {@code x} to base {@code b}.
+     */
+    static double log(double b, double x) {
+        double lnB = Math.log(b);
+        return lnB == 0 ? Double.NaN : Math.log(x) / lnB;
+    }
+
+    /**
+     * Power with real odd roots of negative bases, e.g. (-8)^(1/3) = -2.
+     */
+    static double pow(double a, double b) {
+        if (Double.isNaN(a) || Double.isNaN(b)) {
+            return Double.NaN;
+        }
+        if (a >= 0 || Math.abs(b) >= 1 || b == 0) {
+            return Math.pow(a, b);
+        }
+        double n = 1 / Math.abs(b);
+        double rounded = Math.round(n);
+        if (Math.abs(n - rounded) <= EPSILON && ((long) rounded) % 2 == 1) {
+            return b > 0 ? -Math.pow(-a, 1 / n) : -Math.pow(-a, -1 / n);
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,343 @@
+package com.pluscubed.graph.math;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Recursive descent parser for the subset of mXparser syntax used by graphs. Anything outside
+ * the subset is rejected with an {@link IllegalArgumentException} so the caller can fall back to
+ * mXparser itself.
+ * <p>
+ * mXparser quirks that are reproduced: whitespace is ignored, {@code ^} is right-associative, a
+ * minus sign directly in front of a number is part of the literal unless it follows a comma (so
+ * {@code -2^2} is 4 but {@code -x^2} and {@code min(0,-2^2)} are negative), and doubled signs
+ * such as {@code 1+-2} are syntax errors.
+ * <p>
+ * mXparser evaluates the operators around a signed operand of {@code *}, {@code /} or {@code ^}
+ * out of order ({@code 1+2*-(3)} is -9, {@code 2*3^-x} is {@code 6^-x}), so signed operands are
+ * only accepted in the shapes it gets right: {@code a*-b} and {@code a/-b} as the first term of a
+ * level, and {@code a^-b} as its first factor, with no further {@code *} or {@code /} after a
+ * signed divisor or exponent.
+ */
+final class Parser {
+    private static final Map<String, Integer> UNARY_FUNCTIONS = new HashMap<>();
+    private static final Map<String, Integer> BINARY_FUNCTIONS = new HashMap<>();
+
+    static {
+        UNARY_FUNCTIONS.put("sin", Op.SIN);
+        UNARY_FUNCTIONS.put("cos", Op.COS);
+        UNARY_FUNCTIONS.put("tan", Op.TAN);
+        UNARY_FUNCTIONS.put("tg", Op.TAN);
+        UNARY_FUNCTIONS.put("ctg", Op.COT);
+        UNARY_FUNCTIONS.put("cot", Op.COT);
+        UNARY_FUNCTIONS.put("ctan", Op.COT);
+        UNARY_FUNCTIONS.put("sec", Op.SEC);
+        UNARY_FUNCTIONS.put("csc", Op.CSC);
+        UNARY_FUNCTIONS.put("cosec", Op.CSC);
+        UNARY_FUNCTIONS.put("asin", Op.ASIN);
+        UNARY_FUNCTIONS.put("arcsin", Op.ASIN);
+        UNARY_FUNCTIONS.put("acos", Op.ACOS);
+        UNARY_FUNCTIONS.put("arccos", Op.ACOS);
+        UNARY_FUNCTIONS.put("atan", Op.ATAN);
+        UNARY_FUNCTIONS.put("arctan", Op.ATAN);
+        UNARY_FUNCTIONS.put("arctg", Op.ATAN);
+        UNARY_FUNCTIONS.put("sinh", Op.SINH);
+        UNARY_FUNCTIONS.put("cosh", Op.COSH);
+        UNARY_FUNCTIONS.put("tanh", Op.TANH);
+        UNARY_FUNCTIONS.put("exp", Op.EXP);
+        UNARY_FUNCTIONS.put("ln", Op.LN);
+        UNARY_FUNCTIONS.put("log2", Op.LOG2);
+        UNARY_FUNCTIONS.put("log10", Op.LOG10);
+        UNARY_FUNCTIONS.put("sqrt", Op.SQRT);
+        UNARY_FUNCTIONS.put("abs", Op.ABS);
+        UNARY_FUNCTIONS.put("sgn", Op.SGN);
+        UNARY_FUNCTIONS.put("floor", Op.FLOOR);
+        UNARY_FUNCTIONS.put("ceil", Op.CEIL);
+
+        BINARY_FUNCTIONS.put("log", Op.LOG);
+    }
+
+    private final String input;
+    private final String[] variables;
+    private int pos;
+
+    // State of the current nesting level, used to reject signed operands mXparser misorders
+    private boolean afterSum;
+    private boolean afterProduct;
+    private boolean leadingSign;
+    private boolean inSignedOperand;
+    private boolean inExponent;
+    private boolean blocked;
+
+    private Parser(String expression, String[] variables) {
+        this.input = expression.replaceAll("\\s+", "");
+        this.variables = variables;
+    }
+
+    /**
+     * Parses {@code expression} over the given variable names; variable {@code i} becomes
+     * {@link Node#variable(int) Node.variable(i)}.
+     *
+     * @throws IllegalArgumentException if the expression is malformed or uses unsupported syntax.
+     */
+    static Node parse(String expression, String... variables) {
+        Parser parser = new Parser(expression, variables);
+        Node node = parser.parseSum();
+        if (parser.pos != parser.input.length()) {
+            throw parser.error("Unexpected '" + parser.input.charAt(parser.pos) + "'");
+        }
+        return node;
+    }
+
+    private Node parseSum() {
+        boolean[] outer = {afterSum, afterProduct, leadingSign, inSignedOperand, inExponent, blocked};
+        afterSum = false;
+        inSignedOperand = false;
+        inExponent = false;
+
+        Node node = parseProduct();
+        while (true) {
+            int op;
+            if (accept('+')) {
+                op = Op.ADD;
+            } else if (accept('-')) {
+                op = Op.SUB;
+            } else {
+                break;
+            }
+            rejectSign();
+            afterSum = true;
+            node = Node.binary(op, node, parseProduct());
+        }
+
+        afterSum = outer[0];
+        afterProduct = outer[1];
+        leadingSign = outer[2];
+        inSignedOperand = outer[3];
+        inExponent = outer[4];
+        blocked = outer[5];
+        return node;
+    }
+
+    private Node parseProduct() {
+        afterProduct = false;
+        leadingSign = false;
+        blocked = false;
+
+        Node node = parseUnary();
+        while (true) {
+            int op;
+            if (accept('*')) {
+                op = Op.MUL;
+            } else if (accept('/')) {
+                op = Op.DIV;
+            } else {
+                return node;
+            }
+            if (blocked) {
+                throw error("Ambiguous sign");
+            }
+            afterProduct = true;
+            node = Node.binary(op, node, parseOperand(op));
+        }
+    }
+
+    /**
+     * Parses the right-hand operand of *, / or ^.
+     */
+    private Node parseOperand(int op) {
+        char c = peek();
+        if ((c != '+' && c != '-') || isDigit(peek(1))) {
+            return parseUnary();
+        }
+        if (afterSum || inSignedOperand
+                || (op == Op.POW && (afterProduct || leadingSign || inExponent))) {
+            throw error("Ambiguous sign");
+        }
+        pos++;
+        rejectSign();
+        inSignedOperand = true;
+        Node operand = parseUnary();
+        inSignedOperand = false;
+        if (op != Op.MUL) {
+            blocked = true;
+        }
+        return c == '-' ? Node.unary(Op.NEG, operand) : operand;
+    }
+
+    private Node parseUnary() {
+        if (peek() == '-' && isDigit(peek(1)) && (pos == 0 || input.charAt(pos - 1) != ',')) {
+            // Negative literal, binds tighter than ^
+            pos++;
+            return parsePower(Node.constant(-parseNumber()));
+        }
+        if (accept('+')) {
+            rejectSign();
+            leadingSign = true;
+            return parseUnary();
+        }
+        if (accept('-')) {
+            rejectSign();
+            leadingSign = true;
+            return Node.unary(Op.NEG, parseUnary());
+        }
+        return parsePower(parsePrimary());
+    }
+
+    private Node parsePower(Node base) {
+        if (accept('^')) {
+            // Right-associative: the exponent may itself be a power
+            boolean outerInExponent = inExponent;
+            inExponent = true;
+            Node exponent = parseOperand(Op.POW);
+            inExponent = outerInExponent;
+            return Node.binary(Op.POW, base, exponent);
+        }
+        return base;
+    }
+
+    private Node parsePrimary() {
+        char c = peek();
+        if (isDigit(c)) {
+            return Node.constant(parseNumber());
+        }
+        if (accept('(')) {
+            Node node = parseSum();
+            expect(')');
+            return node;
+        }
+        if (isIdentifierStart(c)) {
+            String name = parseIdentifier();
+            if (peek() == '(') {
+                return parseCall(name);
+            }
+            for (int i = 0; i < variables.length; i++) {
+                if (variables[i].equals(name)) {
+                    return Node.variable(i);
+                }
+            }
+            switch (name) {
+                case "pi":
+                    return Node.constant(Math.PI);
+                case "e":
+                    return Node.constant(Math.E);
+                default:
+                    throw error("Unknown identifier '" + name + "'");
+            }
+        }
+        throw error(pos < input.length() ? "Unexpected '" + c + "'" : "Unexpected end");
+    }
+
+    private Node parseCall(String name) {
+        expect('(');
+        Node first = parseSum();
+
+        Integer unary = UNARY_FUNCTIONS.get(name);
+        if (unary != null) {
+            expect(')');
+            return Node.unary(unary, first);
+        }
+        Integer binary = BINARY_FUNCTIONS.get(name);
+        if (binary != null) {
+            expect(',');
+            Node second = parseSum();
+            expect(')');
+            return Node.binary(binary, first, second);
+        }
+        if (name.equals("min") || name.equals("max")) {
+            int op = name.equals("min") ? Op.MIN : Op.MAX;
+            Node node = first;
+            while (accept(',')) {
+                node = Node.binary(op, node, parseSum());
+            }
+            expect(')');
+            return node;
+        }
+        throw error("Unsupported function '" + name + "'");
+    }
+
+    private double parseNumber() {
+        int start = pos;
+        while (isDigit(peek())) {
+            pos++;
+        }
+        if (peek() == '.') {
+            pos++;
+            if (!isDigit(peek())) {
+                throw error("Malformed number");
+            }
+            while (isDigit(peek())) {
+                pos++;
+            }
+        }
+        if (peek() == 'e' || peek() == 'E') {
+            int exponentStart = pos;
+            pos++;
+            if (peek() == '+' || peek() == '-') {
+                pos++;
+            }
+            if (!isDigit(peek())) {
+                pos = exponentStart;
+                throw error("Malformed number");
+            }
+            while (isDigit(peek())) {
+                pos++;
+            }
+        }
+        return Double.parseDouble(input.substring(start, pos));
+    }
+
+    private String parseIdentifier() {
+        int start = pos;
+        while (isIdentifierPart(peek())) {
+            pos++;
+        }
+        return input.substring(start, pos);
+    }
+
+    private void rejectSign() {
+        char c = peek();
+        if (c == '+' || c == '-') {
+            throw error("Unexpected '" + c + "'");
+        }
+    }
+
+    private boolean accept(char c) {
+        if (peek() == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!accept(c)) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private char peek() {
+        return peek(0);
+    }
+
+    private char peek(int offset) {
+        int i = pos + offset;
+        return i < input.length() ? input.charAt(i) : '\0';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at " + pos + " in \"" + input + "\"");
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+}
@@ -0,0 +1,174 @@
+package com.pluscubed.graph.math;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expression compiled to a flat register program. Registers are laid out as variables, then
+ * constants, then one register per instruction in evaluation order, so evaluating is a single
+ * pass over primitive arrays with no allocation.
+ * <p>
+ * Several expressions over the same variables, such as the components of a parametric graph,
+ * can be compiled into one program with a result register each. Equal subtrees are only emitted
+ * once, within an expression and across them, so shared terms are evaluated once per point.
+ */
+public final class Program extends CompiledExpression {
+    // Bits of dependencies(): which variables a register depends on
+    static final int DEPENDS_ON_A = 1;
+    static final int DEPENDS_ON_B = 2;
+
+    final int variableCount;
+    final double[] constants;
+    final int[] ops;
+    final int[] lhs;
+    final int[] rhs;
+    // Register of each expression's value
+    final int[] results;
+    // The first expression's, for single-expression programs
+    final int result;
+
+    private Program(int variableCount, double[] constants, int[] ops, int[] lhs, int[] rhs, int[] results) {
+        this.variableCount = variableCount;
+        this.constants = constants;
+        this.ops = ops;
+        this.lhs = lhs;
+        this.rhs = rhs;
+        this.results = results;
+        this.result = results[0];
+    }
+
+    static Program compile(Node root, int variableCount) {
+        return compile(new Node[]{root}, variableCount);
+    }
+
+    static Program compile(Node[] roots, int variableCount) {
+        Builder builder = new Builder(variableCount);
+        for (Node root : roots) {
+            builder.collectConstants(root);
+        }
+        int[] results = new int[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            results[i] = builder.emit(roots[i]);
+        }
+        return builder.build(results);
+    }
+
+    int registerCount() {
+        return variableCount + constants.length + ops.length;
+    }
+
+    int firstInstructionRegister() {
+        return variableCount + constants.length;
+    }
+
+    /**
+     * Variables each register depends on, as {@link #DEPENDS_ON_A} and {@link #DEPENDS_ON_B}
+     * bits; 0 for constants and instructions over them alone.
+     */
+    int[] dependencies() {
+        int[] dependencies = new int[registerCount()];
+        for (int i = 0; i < variableCount; i++) {
+            dependencies[i] = 1 << i;
+        }
+        int dst = firstInstructionRegister();
+        for (int i = 0; i < ops.length; i++, dst++) {
+            dependencies[dst] = dependencies[lhs[i]] | dependencies[rhs[i]];
+        }
+        return dependencies;
+    }
+
+    double[] newRegisters() {
+        double[] registers = new double[registerCount()];
+        System.arraycopy(constants, 0, registers, variableCount, constants.length);
+        return registers;
+    }
+
+    /**
+     * Runs the program over {@code registers}, which must come from {@link #newRegisters()} and
+     * have the variables filled in.
+     */
+    double run(double[] registers) {
+        int[] ops = this.ops;
+        int[] lhs = this.lhs;
+        int[] rhs = this.rhs;
+        int dst = firstInstructionRegister();
+        for (int i = 0; i < ops.length; i++, dst++) {
+            registers[dst] = Op.apply(ops[i], registers[lhs[i]], registers[rhs[i]]);
+        }
+        return registers[result];
+    }
+
+    @Override
+    public Evaluator newEvaluator() {
+        return new ProgramEvaluator(this);
+    }
+
+    private static final class Builder {
+        private final int variableCount;
+        private final List<Double> constants = new ArrayList<>();
+        private final List<int[]> instructions = new ArrayList<>();
+        // Register of every subtree emitted so far
+        private final Map<Node, Integer> emitted = new HashMap<>();
+
+        Builder(int variableCount) {
+            this.variableCount = variableCount;
+        }
+
+        void collectConstants(Node node) {
+            if (node.op == Op.CONST) {
+                if (!constants.contains(node.value)) {
+                    constants.add(node.value);
+                }
+            } else if (node.op != Op.VAR) {
+                collectConstants(node.a);
+                if (node.b != null) {
+                    collectConstants(node.b);
+                }
+            }
+        }
+
+        /**
+         * Emits instructions for {@code node} in post-order and returns its register, or the
+         * register of an equal subtree emitted before.
+         */
+        int emit(Node node) {
+            switch (node.op) {
+                case Op.CONST:
+                    return variableCount + constants.indexOf(node.value);
+                case Op.VAR:
+                    return node.variable;
+                default:
+                    Integer register = emitted.get(node);
+                    if (register != null) {
+                        return register;
+                    }
+                    int a = emit(node.a);
+                    int b = node.b != null ? emit(node.b) : a;
+                    instructions.add(new int[]{node.op, a, b});
+                    register = variableCount + constants.size() + instructions.size() - 1;
+                    emitted.put(node, register);
+                    return register;
+            }
+        }
+
+        Program build(int[] results) {
+            double[] constantValues = new double[constants.size()];
+            for (int i = 0; i < constantValues.length; i++) {
+                constantValues[i] = constants.get(i);
+            }
+            int count = instructions.size();
+            int[] ops = new int[count];
+            int[] lhs = new int[count];
+            int[] rhs = new int[count];
+            for (int i = 0; i < count; i++) {
+                int[] instruction = instructions.get(i);
+                ops[i] = instruction[0];
+                lhs[i] = instruction[1];
+                rhs[i] = instruction[2];
+            }
+            return new Program(variableCount, constantValues, ops, lhs, rhs, results);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.pluscubed.graph.math;
+
+import java.util.Arrays;
+
+/**
+ * {@link Evaluator} over a {@link Program}. Scalar evaluation uses one register file; batch
+ * evaluation keeps a column per register and runs each instruction over the whole batch before
+ * moving on to the next. Gradients are dual numbers: every register also keeps its derivatives
+ * with respect to both variables, carried through each instruction by the chain rule.
+ * <p>
+ * Rows of a grid split the instructions by the variables they depend on: those of the first
+ * variable alone keep their columns from row to row, those of the second variable alone or of
+ * neither run once per row as scalars, and only the rest run over the row.
+ * <p>
+ * Bounds run the program once over intervals, see {@link Intervals}.
+ */
+final class ProgramEvaluator implements Evaluator {
+    private final Program program;
+    private final double[] registers;
+
+    private double[][] columns;
+    private int capacity;
+
+    // Derivatives of each register with respect to both variables, allocated on first use
+    private double[][] dxColumns;
+    private double[][] dyColumns;
+    private int gradientCapacity;
+
+    // Instructions of rows by what they depend on: the first variable alone, neither or the
+    // second alone, and both
+    private final int[] columnInstructions;
+    private final int[] rowInstructions;
+    private final int[] cellInstructions;
+    // Per-row scalars that cell instructions read, so they're filled into columns each row
+    private final int[] broadcastRegisters;
+    // Scalars of constants alone that the first variable's instructions read, filled into
+    // columns with them
+    private final int[] hoistedRegisters;
+    // Whether each result varies along a row, or is a per-row scalar
+    private final boolean[] resultVaries;
+    // First variable the hoisted columns were evaluated over, null when they're stale
+    private double[] rowA;
+    private int rowCount;
+    // Column of the second variable for rows, separate from the caller's arrays
+    private double[] rowB;
+
+    // Interval registers, allocated on first use
+    private double[] lowerBounds;
+    private double[] upperBounds;
+    private int[] definedness;
+    private Intervals intervals;
+
+    ProgramEvaluator(Program program) {
+        this.program = program;
+        this.registers = program.newRegisters();
+        this.columns = new double[program.registerCount()][];
+
+        int[] dependencies = program.dependencies();
+        int count = program.ops.length;
+        int[] column = new int[count];
+        int[] row = new int[count];
+        int[] cell = new int[count];
+        int columnCount = 0;
+        int rowCount = 0;
+        int cellCount = 0;
+        boolean[] broadcast = new boolean[dependencies.length];
+        boolean[] hoisted = new boolean[dependencies.length];
+        int dst = program.firstInstructionRegister();
+        for (int i = 0; i < count; i++, dst++) {
+            switch (dependencies[dst]) {
+                case Program.DEPENDS_ON_A:
+                    column[columnCount++] = i;
+                    hoisted[program.lhs[i]] = true;
+                    hoisted[program.rhs[i]] = true;
+                    break;
+                case Program.DEPENDS_ON_A | Program.DEPENDS_ON_B:
+                    cell[cellCount++] = i;
+                    broadcast[program.lhs[i]] = true;
+                    broadcast[program.rhs[i]] = true;
+                    break;
+                default:
+                    row[rowCount++] = i;
+                    break;
+            }
+        }
+        resultVaries = new boolean[program.results.length];
+        for (int r = 0; r < resultVaries.length; r++) {
+            resultVaries[r] = (dependencies[program.results[r]] & Program.DEPENDS_ON_A) != 0;
+        }
+        columnInstructions = Arrays.copyOf(column, columnCount);
+        rowInstructions = Arrays.copyOf(row, rowCount);
+        cellInstructions = Arrays.copyOf(cell, cellCount);
+        this.broadcastRegisters = scalarRegisters(broadcast, dependencies, Program.DEPENDS_ON_A);
+        this.hoistedRegisters = scalarRegisters(hoisted, dependencies,
+                Program.DEPENDS_ON_A | Program.DEPENDS_ON_B);
+    }
+
+    /**
+     * Registers that are marked and don't depend on {@code varying}, leaving out constants,
+     * which already have columns.
+     */
+    private int[] scalarRegisters(boolean[] marked, int[] dependencies, int varying) {
+        int[] registers = new int[marked.length];
+        int count = 0;
+        for (int r = 0; r < marked.length; r++) {
+            boolean constant = r >= program.variableCount && r < program.firstInstructionRegister();
+            if (marked[r] && !constant && (dependencies[r] & varying) == 0) {
+                registers[count++] = r;
+            }
+        }
+        return Arrays.copyOf(registers, count);
+    }
+
+    @Override
+    public double evaluate(double a, double b) {
+        if (program.variableCount > 0) {
+            registers[0] = a;
+        }
+        if (program.variableCount > 1) {
+            registers[1] = b;
+        }
+        return program.run(registers);
+    }
+
+    @Override
+    public int resultCount() {
+        return program.results.length;
+    }
+
+    @Override
+    public void evaluate(double[] a, double[] b, double[] out, int count) {
+        runColumns(a, b, count);
+        System.arraycopy(columns[program.result], 0, out, 0, count);
+    }
+
+    @Override
+    public void evaluate(double[] a, double[] b, double[][] out, int count) {
+        runColumns(a, b, count);
+        for (int r = 0; r < out.length; r++) {
+            System.arraycopy(columns[program.results[r]], 0, out[r], 0, count);
+        }
+    }
+
+    @Override
+    public void evaluateRow(double[] a, double b, double[] out, int count) {
+        runRow(a, b, count);
+        copyRowResult(0, out, count);
+    }
+
+    @Override
+    public void evaluateRow(double[] a, double b, double[][] out, int count) {
+        runRow(a, b, count);
+        for (int r = 0; r < out.length; r++) {
+            copyRowResult(r, out[r], count);
+        }
+    }
+
+    @Override
+    public void evaluateGradient(double[] a, double[] b, double[] out, double[] da, double[] db, int count) {
+        runGradient(a, b, count);
+        copyGradientResult(0, out, da, db, count);
+    }
+
+    @Override
+    public void evaluateGradient(double[] a, double[] b, double[][] out, double[][] da, double[][] db,
+                                 int count) {
+        runGradient(a, b, count);
+        for (int r = 0; r < out.length; r++) {
+            copyGradientResult(r, out[r], da[r], db[r], count);
+        }
+    }
+
+    @Override
+    public void evaluateBounds(double aMin, double aMax, double bMin, double bMax,
+                               double[] min, double[] max, int[] defined) {
+        if (intervals == null) {
+            int registers = program.registerCount();
+            lowerBounds = new double[registers];
+            upperBounds = new double[registers];
+            definedness = new int[registers];
+            intervals = new Intervals(lowerBounds, upperBounds, definedness);
+            int first = program.variableCount;
+            for (int i = 0; i < program.constants.length; i++) {
+                double constant = program.constants[i];
+                lowerBounds[first + i] = constant;
+                upperBounds[first + i] = constant;
+                definedness[first + i] = Double.isNaN(constant) ? UNDEFINED : DEFINED;
+            }
+        }
+        if (program.variableCount > 0) {
+            lowerBounds[0] = aMin;
+            upperBounds[0] = aMax;
+        }
+        if (program.variableCount > 1) {
+            lowerBounds[1] = bMin;
+            upperBounds[1] = bMax;
+        }
+
+        int[] ops = program.ops;
+        int[] lhs = program.lhs;
+        int[] rhs = program.rhs;
+        int dst = program.firstInstructionRegister();
+        for (int i = 0; i < ops.length; i++, dst++) {
+            intervals.apply(ops[i], lhs[i], rhs[i], dst);
+        }
+        for (int r = 0; r < program.results.length; r++) {
+            int result = program.results[r];
+            min[r] = lowerBounds[result];
+            max[r] = upperBounds[result];
+            defined[r] = definedness[result];
+        }
+    }
+
+    private void runColumns(double[] a, double[] b, int count) {
+        ensureCapacity(count);
+        // Every register is overwritten
+        rowA = null;
+
+        double[][] columns = this.columns;
+        // Variables are read straight from the inputs
+        if (program.variableCount > 0) {
+            columns[0] = a;
+        }
+        if (program.variableCount > 1) {
+            columns[1] = b;
+        }
+
+        int[] ops = program.ops;
+        int[] lhs = program.lhs;
+        int[] rhs = program.rhs;
+        int dst = program.firstInstructionRegister();
+        for (int i = 0; i < ops.length; i++, dst++) {
+            Op.applyColumn(ops[i], columns[lhs[i]], columns[rhs[i]], columns[dst], count);
+        }
+    }
+
+    private void runRow(double[] a, double b, int count) {
+        ensureCapacity(count);
+
+        double[][] columns = this.columns;
+        int[] ops = program.ops;
+        int[] lhs = program.lhs;
+        int[] rhs = program.rhs;
+        int first = program.firstInstructionRegister();
+        if (program.variableCount > 0) {
+            columns[0] = a;
+        }
+
+        // Once per row
+        double[] registers = this.registers;
+        if (program.variableCount > 1) {
+            registers[1] = b;
+        }
+        for (int i : rowInstructions) {
+            registers[first + i] = Op.apply(ops[i], registers[lhs[i]], registers[rhs[i]]);
+        }
+
+        // Once for as long as the row's first variable stays the same
+        if (a != rowA || count != rowCount) {
+            for (int r : hoistedRegisters) {
+                Arrays.fill(columns[r], 0, count, registers[r]);
+            }
+            for (int i : columnInstructions) {
+                Op.applyColumn(ops[i], columns[lhs[i]], columns[rhs[i]], columns[first + i], count);
+            }
+            rowA = a;
+            rowCount = count;
+        }
+
+        for (int r : broadcastRegisters) {
+            if (r == 1) {
+                if (rowB == null || rowB.length < capacity) {
+                    rowB = new double[capacity];
+                }
+                columns[1] = rowB;
+            }
+            Arrays.fill(columns[r], 0, count, registers[r]);
+        }
+
+        // Once per point
+        for (int i : cellInstructions) {
+            Op.applyColumn(ops[i], columns[lhs[i]], columns[rhs[i]], columns[first + i], count);
+        }
+    }
+
+    private void copyRowResult(int r, double[] out, int count) {
+        int result = program.results[r];
+        if (resultVaries[r]) {
+            System.arraycopy(columns[result], 0, out, 0, count);
+        } else {
+            Arrays.fill(out, 0, count, registers[result]);
+        }
+    }
+
+    private void runGradient(double[] a, double[] b, int count) {
+        runColumns(a, b, count);
+        ensureGradientCapacity(count);
+
+        double[][] columns = this.columns;
+        double[][] dxColumns = this.dxColumns;
+        double[][] dyColumns = this.dyColumns;
+        int[] ops = program.ops;
+        int[] lhs = program.lhs;
+        int[] rhs = program.rhs;
+        int dst = program.firstInstructionRegister();
+        for (int i = 0; i < ops.length; i++, dst++) {
+            Op.gradientColumn(ops[i], columns[lhs[i]], columns[rhs[i]], columns[dst],
+                    dxColumns[lhs[i]], dyColumns[lhs[i]], dxColumns[rhs[i]], dyColumns[rhs[i]],
+                    dxColumns[dst], dyColumns[dst], count);
+        }
+    }
+
+    private void copyGradientResult(int r, double[] out, double[] da, double[] db, int count) {
+        int result = program.results[r];
+        System.arraycopy(columns[result], 0, out, 0, count);
+        System.arraycopy(dxColumns[result], 0, da, 0, count);
+        System.arraycopy(dyColumns[result], 0, db, 0, count);
+    }
+
+    private void ensureCapacity(int count) {
+        if (count <= capacity) {
+            return;
+        }
+        capacity = count;
+        int first = program.variableCount;
+        for (int i = 0; i < program.constants.length; i++) {
+            columns[first + i] = new double[capacity];
+            Arrays.fill(columns[first + i], program.constants[i]);
+        }
+        for (int i = program.firstInstructionRegister(); i < columns.length; i++) {
+            columns[i] = new double[capacity];
+        }
+    }
+
+    private void ensureGradientCapacity(int count) {
+        if (count <= gradientCapacity) {
+            return;
+        }
+        gradientCapacity = count;
+        int registers = program.registerCount();
+        dxColumns = new double[registers][];
+        dyColumns = new double[registers][];
+
+        // Each variable has a derivative of 1 with respect to itself, constants have none
+        double[] zeros = new double[count];
+        double[] ones = new double[count];
+        Arrays.fill(ones, 1);
+        for (int i = 0; i < program.firstInstructionRegister(); i++) {
+            dxColumns[i] = i == 0 && program.variableCount > 0 ? ones : zeros;
+            dyColumns[i] = i == 1 && program.variableCount > 1 ? ones : zeros;
+        }
+        for (int i = program.firstInstructionRegister(); i < registers; i++) {
+            dxColumns[i] = new double[count];
+            dyColumns[i] = new double[count];
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.pluscubed.graph.math;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Regroups sums and products by the variables their terms depend on, so that separable
+ * expressions such as {@code x^2+y+y^2+x} or {@code sin(x)*y*cos(x)} become a single {@code +}
+ * or {@code *} of a part in the first variable alone and a part in the second alone. Over a grid
+ * {@link ProgramEvaluator#evaluateRow} then evaluates the first part once per column and the
+ * second once per row, leaving one operation per point to combine them.
+ * <p>
+ * Terms that depend on both variables are kept together as a third part, constants join the
+ * part in the second variable (evaluated once per row) or whichever part there is. A part of
+ * divisors alone divides the others, so {@code x/y} stays a division rather than becoming
+ * {@code x*(1/y)}, and divisors are kept whole like in {@link Simplifier}. A chain that would
+ * end up in one part anyway keeps its shape, so its rounding doesn't change.
+ */
+final class Separable {
+    private static final int DEPENDS_ON_A = Program.DEPENDS_ON_A;
+    private static final int DEPENDS_ON_B = Program.DEPENDS_ON_B;
+
+    private Separable() {
+    }
+
+    static Node separate(Node node) {
+        switch (node.op) {
+            case Op.CONST:
+            case Op.VAR:
+                return node;
+            case Op.ADD:
+            case Op.SUB:
+                return regroup(node, Op.ADD, Op.SUB);
+            case Op.MUL:
+            case Op.DIV:
+                return regroup(node, Op.MUL, Op.DIV);
+            case Op.NEG:
+                // A negated sum is a sum of negated terms
+                if (node.a.op == Op.ADD || node.a.op == Op.SUB) {
+                    return regroup(node, Op.ADD, Op.SUB);
+                }
+                return Node.unary(Op.NEG, separate(node.a));
+            default:
+                Node a = separate(node.a);
+                if (node.b == null) {
+                    return a == node.a ? node : Node.unary(node.op, a);
+                }
+                Node b = separate(node.b);
+                return a == node.a && b == node.b ? node : Node.binary(node.op, a, b);
+        }
+    }
+
+    /**
+     * Flattens a chain of {@code op} and its inverse, e.g. a sum with its differences, and
+     * combines the parts in each variable alone with one {@code op} each.
+     */
+    private static Node regroup(Node node, int op, int inverseOp) {
+        List<Node> terms = new ArrayList<>();
+        List<Boolean> inverted = new ArrayList<>();
+        flatten(node, op, inverseOp, false, terms, inverted);
+
+        // First variable alone, second variable (and constants), both
+        Part[] parts = {new Part(), new Part(), new Part()};
+        List<Node> separated = new ArrayList<>();
+        List<Node> constants = new ArrayList<>();
+        List<Boolean> invertedConstants = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) {
+            Node term = separate(terms.get(i));
+            separated.add(term);
+            int dependencies = dependencies(term);
+            if (dependencies == 0) {
+                constants.add(term);
+                invertedConstants.add(inverted.get(i));
+            } else {
+                Part part = parts[dependencies == DEPENDS_ON_A ? 0 : dependencies == DEPENDS_ON_B ? 1 : 2];
+                part.terms.add(term);
+                part.inverted.add(inverted.get(i));
+            }
+        }
+
+        int used = 0;
+        for (Part part : parts) {
+            if (!part.terms.isEmpty()) {
+                used++;
+            }
+        }
+        if (used < 2) {
+            // Nothing to separate, only the terms themselves may have changed
+            return rebuild(node, op, inverseOp, separated.iterator());
+        }
+
+        // Constants go with terms they can be combined with rather than divisors, e.g. 2*x/y is
+        // (2*x)/y
+        Part constantPart = null;
+        for (int i : new int[]{1, 0, 2}) {
+            if (constantPart == null && parts[i].hasUninverted()) {
+                constantPart = parts[i];
+            }
+        }
+        if (constantPart == null) {
+            constantPart = !parts[1].terms.isEmpty() ? parts[1] : !parts[0].terms.isEmpty() ? parts[0] : parts[2];
+        }
+        constantPart.terms.addAll(0, constants);
+        constantPart.inverted.addAll(0, invertedConstants);
+
+        Node result = null;
+        for (Part part : parts) {
+            if (part.hasUninverted()) {
+                Node combined = part.combine(op, inverseOp);
+                result = result == null ? combined : Node.binary(op, result, combined);
+            }
+        }
+        for (Part part : parts) {
+            if (part.terms.isEmpty() || part.hasUninverted()) {
+                continue;
+            }
+            if (result == null) {
+                result = part.combine(op, inverseOp);
+            } else {
+                // Divisors alone, divided out one by one like they were
+                for (Node term : part.terms) {
+                    result = Node.binary(inverseOp, result, term);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void flatten(Node node, int op, int inverseOp, boolean inverted,
+                                List<Node> terms, List<Boolean> invertedTerms) {
+        if (node.op == op || node.op == inverseOp) {
+            flatten(node.a, op, inverseOp, inverted, terms, invertedTerms);
+            if (node.op == Op.DIV) {
+                terms.add(node.b);
+                invertedTerms.add(!inverted);
+            } else {
+                flatten(node.b, op, inverseOp, inverted != (node.op == inverseOp), terms, invertedTerms);
+            }
+        } else if (op == Op.ADD && node.op == Op.NEG) {
+            flatten(node.a, op, inverseOp, !inverted, terms, invertedTerms);
+        } else {
+            terms.add(node);
+            invertedTerms.add(inverted);
+        }
+    }
+
+    /**
+     * The chain as it was, with its terms replaced by their separated forms in the order
+     * {@link #flatten} found them.
+     */
+    private static Node rebuild(Node node, int op, int inverseOp, Iterator<Node> separated) {
+        if (node.op == op || node.op == inverseOp) {
+            Node a = rebuild(node.a, op, inverseOp, separated);
+            Node b = node.op == Op.DIV ? separated.next() : rebuild(node.b, op, inverseOp, separated);
+            return a == node.a && b == node.b ? node : Node.binary(node.op, a, b);
+        }
+        if (op == Op.ADD && node.op == Op.NEG) {
+            Node a = rebuild(node.a, op, inverseOp, separated);
+            return a == node.a ? node : Node.unary(Op.NEG, a);
+        }
+        return separated.next();
+    }
+
+    private static int dependencies(Node node) {
+        switch (node.op) {
+            case Op.CONST:
+                return 0;
+            case Op.VAR:
+                return 1 << node.variable;
+            default:
+                return dependencies(node.a) | (node.b != null ? dependencies(node.b) : 0);
+        }
+    }
+
+    private static final class Part {
+        final List<Node> terms = new ArrayList<>();
+        final List<Boolean> inverted = new ArrayList<>();
+
+        boolean hasUninverted() {
+            return inverted.contains(false);
+        }
+
+        /**
+         * The terms in their original order, inverted ones taken away or divided out. The first
+         * term that isn't inverted leads, so there's only a reciprocal or negation if all are.
+         */
+        Node combine(int op, int inverseOp) {
+            int first = inverted.indexOf(false);
+            Node result = first >= 0 ? terms.get(first) : null;
+            for (int i = 0; i < terms.size(); i++) {
+                Node term = terms.get(i);
+                if (i == first) {
+                    continue;
+                }
+                if (result != null) {
+                    result = Node.binary(inverted.get(i) ? inverseOp : op, result, term);
+                } else if (!inverted.get(i)) {
+                    result = term;
+                } else if (op == Op.ADD) {
+                    result = Node.unary(Op.NEG, term);
+                } else {
+                    result = Node.binary(Op.DIV, Node.constant(1), term);
+                }
+            }
+            return result;
+        }
+    }
+}
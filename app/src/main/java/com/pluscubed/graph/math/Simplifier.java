@@ -0,0 +1,159 @@
+package com.pluscubed.graph.math;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Algebraic simplification run once per expression before it's compiled, so
+ * {@code 2*pi*x/(2*pi)} or {@code x^1-0} reach the evaluators as {@code x}:
+ * <ul>
+ * <li>Operations on constants alone are folded with {@link Op#apply}, the same arithmetic the
+ * evaluators would have done.</li>
+ * <li>The constants of a sum or product are collected into one, which is dropped if it's the
+ * identity: 1, or -0 rather than 0 for sums, since {@code -0+0} is 0.</li>
+ * <li>Identities: {@code x^1} and {@code --x}.</li>
+ * <li>Small powers become multiplications, {@code x^2} is {@code x*x}, and {@code x^0.5} is
+ * {@code sqrt(x)+0}, which is 0 rather than -0 at -0. The repeated factor is one subtree, so the
+ * program evaluates it once.</li>
+ * </ul>
+ * Rules that would hide a NaN, an infinity or the sign of a zero, such as {@code x^0},
+ * {@code x-x} or {@code 0*x}, aren't applied: {@code (0*x)^-1} is -inf for negative {@code x}.
+ * Divisors are kept whole, so {@code 2/(x/y)} stays NaN where {@code y} is 0.
+ * Collected constants can round differently than the original order of operations.
+ */
+final class Simplifier {
+    private Simplifier() {
+    }
+
+    static Node simplify(Node node) {
+        switch (node.op) {
+            case Op.CONST:
+            case Op.VAR:
+                return node;
+            case Op.ADD:
+            case Op.SUB:
+                return collect(node, Op.ADD, Op.SUB);
+            case Op.MUL:
+            case Op.DIV:
+                return collect(node, Op.MUL, Op.DIV);
+            case Op.POW:
+                return power(simplify(node.a), simplify(node.b));
+            case Op.NEG:
+                Node a = simplify(node.a);
+                if (a.op == Op.NEG) {
+                    return a.a;
+                }
+                return fold(Node.unary(Op.NEG, a));
+            default:
+                a = simplify(node.a);
+                if (node.b == null) {
+                    return fold(Node.unary(node.op, a));
+                }
+                return fold(Node.binary(node.op, a, simplify(node.b)));
+        }
+    }
+
+    /**
+     * Simplifies a chain of {@code op} and its inverse, with all its constants collected into
+     * one at the front.
+     */
+    private static Node collect(Node node, int op, int inverseOp) {
+        boolean sum = op == Op.ADD;
+        List<Node> terms = new ArrayList<>();
+        List<Boolean> inverted = new ArrayList<>();
+        flatten(node, op, inverseOp, false, terms, inverted);
+
+        double identity = sum ? -0.0 : 1;
+        double constant = identity;
+        List<Node> variableTerms = new ArrayList<>();
+        List<Boolean> variableInverted = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) {
+            Node term = simplify(terms.get(i));
+            if (term.op == Op.CONST) {
+                constant = Op.apply(inverted.get(i) ? inverseOp : op, constant, term.value);
+            } else {
+                variableTerms.add(term);
+                variableInverted.add(inverted.get(i));
+            }
+        }
+
+        if (variableTerms.isEmpty() || Double.isNaN(constant)) {
+            return Node.constant(constant);
+        }
+
+        Node result = null;
+        // Compared exactly, 0 isn't the identity of sums
+        if (Double.compare(constant, identity) != 0) {
+            result = Node.constant(constant);
+        }
+        for (int i = 0; i < variableTerms.size(); i++) {
+            Node term = variableTerms.get(i);
+            boolean invertedTerm = variableInverted.get(i);
+            if (result != null) {
+                result = Node.binary(invertedTerm ? inverseOp : op, result, term);
+            } else if (!invertedTerm) {
+                result = term;
+            } else if (sum) {
+                result = Node.unary(Op.NEG, term);
+            } else {
+                result = Node.binary(Op.DIV, Node.constant(1), term);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Collects the terms of a chain. A divisor is one term, whatever it is itself: dividing by
+     * a quotient isn't the same as multiplying by its reciprocal where that's NaN.
+     */
+    private static void flatten(Node node, int op, int inverseOp, boolean inverted,
+                                List<Node> terms, List<Boolean> invertedTerms) {
+        if (node.op == op || node.op == inverseOp) {
+            flatten(node.a, op, inverseOp, inverted, terms, invertedTerms);
+            if (node.op == Op.DIV) {
+                terms.add(node.b);
+                invertedTerms.add(!inverted);
+            } else {
+                flatten(node.b, op, inverseOp, inverted != (node.op == inverseOp), terms, invertedTerms);
+            }
+        } else if (op == Op.ADD && node.op == Op.NEG) {
+            flatten(node.a, op, inverseOp, !inverted, terms, invertedTerms);
+        } else {
+            terms.add(node);
+            invertedTerms.add(inverted);
+        }
+    }
+
+    private static Node power(Node base, Node exponent) {
+        if (exponent.op == Op.CONST) {
+            double n = exponent.value;
+            if (n == 1) {
+                return base;
+            }
+            if (n == 0.5 && base.op != Op.CONST) {
+                return Node.binary(Op.ADD, Node.unary(Op.SQRT, base), Node.constant(0));
+            }
+            if (n == 2 && base.op != Op.CONST) {
+                return Node.binary(Op.MUL, base, base);
+            }
+            if (n == 3 && base.op != Op.CONST) {
+                return Node.binary(Op.MUL, Node.binary(Op.MUL, base, base), base);
+            }
+            if (n == 4 && base.op != Op.CONST) {
+                Node square = Node.binary(Op.MUL, base, base);
+                return Node.binary(Op.MUL, square, square);
+            }
+        }
+        return fold(Node.binary(Op.POW, base, exponent));
+    }
+
+    /**
+     * The node's value if its operands are all constants, otherwise the node.
+     */
+    private static Node fold(Node node) {
+        if (node.a.op == Op.CONST && (node.b == null || node.b.op == Op.CONST)) {
+            return Node.constant(Op.apply(node.op, node.a.value, node.b != null ? node.b.value : 0));
+        }
+        return node;
+    }
+}
@@ -0,0 +1,92 @@
+package com.pluscubed.graph.mesh;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Bounding boxes of the blocks of a (y, z, x) grid, the ones {@link GridIndices} splits a grid
+ * drawn as one tile into: {@link GridIndices#BLOCK_CELLS} cells each way, neighbours sharing
+ * their edge vertices. Stored as min (y, z, x) then max (y, z, x) of each block, a row of blocks
+ * at a time.
+ * <p>
+ * They're found while the mesh is sampled and kept with it, so culling only combines the boxes
+ * under each block it draws. Each band of rows grows its own boxes, merged once sampling is done.
+ */
+public final class BlockBounds {
+    private BlockBounds() {
+    }
+
+    /**
+     * Blocks along a side of {@code vertices}.
+     */
+    public static int along(int vertices) {
+        return Math.max(1, (vertices - 2) / GridIndices.BLOCK_CELLS + 1);
+    }
+
+    /**
+     * Boxes that contain nothing yet, for a grid of {@code columns} by {@code rows} vertices.
+     */
+    public static float[] empty(int columns, int rows) {
+        float[] bounds = new float[along(columns) * along(rows) * 6];
+        for (int o = 0; o < bounds.length; o += 6) {
+            for (int i = 0; i < 3; i++) {
+                bounds[o + i] = Float.MAX_VALUE;
+                bounds[o + 3 + i] = -Float.MAX_VALUE;
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Grows the boxes of the blocks a row of vertices belongs to, two rows of blocks if it's on
+     * their shared edge.
+     */
+    public static void addRow(float[] bounds, FloatBuffer vertices, int columns, int rows, int row) {
+        int blockColumns = along(columns);
+        int blockRows = along(rows);
+        int firstBlockRow = row == 0 ? 0 : Math.min((row - 1) / GridIndices.BLOCK_CELLS, blockRows - 1);
+        int lastBlockRow = Math.min(row / GridIndices.BLOCK_CELLS, blockRows - 1);
+
+        float[] rowBounds = new float[6];
+        for (int blockColumn = 0; blockColumn < blockColumns; blockColumn++) {
+            int firstColumn = blockColumn * GridIndices.BLOCK_CELLS;
+            int lastColumn = Math.min(firstColumn + GridIndices.BLOCK_CELLS, columns - 1);
+            for (int i = 0; i < 3; i++) {
+                rowBounds[i] = Float.MAX_VALUE;
+                rowBounds[3 + i] = -Float.MAX_VALUE;
+            }
+            for (int v = (row * columns + firstColumn) * 3; v <= (row * columns + lastColumn) * 3; v += 3) {
+                for (int i = 0; i < 3; i++) {
+                    float value = vertices.get(v + i);
+                    if (value < rowBounds[i])
+                        rowBounds[i] = value;
+                    if (value > rowBounds[3 + i])
+                        rowBounds[3 + i] = value;
+                }
+            }
+            for (int blockRow = firstBlockRow; blockRow <= lastBlockRow; blockRow++) {
+                grow(bounds, (blockRow * blockColumns + blockColumn) * 6, rowBounds, 0);
+            }
+        }
+    }
+
+    /**
+     * Grows every box in {@code into} by the same block's box in {@code from}.
+     */
+    public static void merge(float[] into, float[] from) {
+        for (int o = 0; o < into.length; o += 6) {
+            grow(into, o, from, o);
+        }
+    }
+
+    /**
+     * Grows the box at {@code o} in {@code into} by the box at {@code from} in {@code boxes}.
+     */
+    public static void grow(float[] into, int o, float[] boxes, int from) {
+        for (int i = 0; i < 3; i++) {
+            if (boxes[from + i] < into[o + i])
+                into[o + i] = boxes[from + i];
+            if (boxes[from + 3 + i] > into[o + 3 + i])
+                into[o + 3 + i] = boxes[from + 3 + i];
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.pluscubed.graph.mesh;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Direct, native-order buffers for mesh data, reused across rebuilds. Sizes are rounded up to a
+ * power of two so a rebuild at a similar resolution gets back the buffer the last one used.
+ */
+final class BufferPool {
+    private static final int MIN_CLASS_SHIFT = 12;
+    private static final int MAX_FREE_PER_CLASS = 4;
+    private static final long MAX_FREE_BYTES = 32 * 1024 * 1024;
+
+    @SuppressWarnings("unchecked")
+    private static final ArrayDeque<ByteBuffer>[] free = new ArrayDeque[31];
+    private static long freeBytes;
+
+    private BufferPool() {
+    }
+
+    /**
+     * Returns a buffer with at least {@code bytes} of capacity, positioned at 0 with its limit at
+     * {@code bytes}.
+     */
+    static ByteBuffer acquire(int bytes) {
+        int sizeClass = sizeClass(bytes);
+        ByteBuffer buffer = null;
+        synchronized (BufferPool.class) {
+            ArrayDeque<ByteBuffer> buffers = free[sizeClass];
+            if (buffers != null && !buffers.isEmpty()) {
+                buffer = buffers.pop();
+                freeBytes -= buffer.capacity();
+            }
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(1 << sizeClass).order(ByteOrder.nativeOrder());
+        }
+        buffer.clear();
+        buffer.limit(bytes);
+        return buffer;
+    }
+
+    static void release(ByteBuffer buffer) {
+        int sizeClass = Integer.numberOfTrailingZeros(buffer.capacity());
+        synchronized (BufferPool.class) {
+            if (free[sizeClass] == null) {
+                free[sizeClass] = new ArrayDeque<>();
+            }
+            ArrayDeque<ByteBuffer> buffers = free[sizeClass];
+            // Past the caps the buffer is left to the garbage collector
+            if (buffers.size() < MAX_FREE_PER_CLASS && freeBytes + buffer.capacity() <= MAX_FREE_BYTES) {
+                buffers.push(buffer);
+                freeBytes += buffer.capacity();
+            }
+        }
+    }
+
+    private static int sizeClass(int bytes) {
+        if (bytes > 1 << 30) {
+            throw new IllegalArgumentException("Mesh buffer too large: " + bytes + " bytes");
+        }
+        return Math.max(MIN_CLASS_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1));
+    }
+}
@@ -0,0 +1,243 @@
+package com.pluscubed.graph.mesh;
+
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Line list indices for a row-major grid of vertices: a segment between each pair of neighbours
+ * along a row and along a column.
+ * <p>
+ * With 16-bit indices a grid can only address 65,536 vertices at a time, so larger grids are
+ * drawn as tiles of whole rows. Each tile is drawn with the vertex attribute pointer moved to
+ * its first row and indices counted from there, and consecutive tiles share a row so the column
+ * segments join up. With 32-bit indices the whole grid is one tile.
+ * <p>
+ * Tiles are split further into blocks of up to {@link #BLOCK_CELLS} cells each way, and each
+ * block's indices are contiguous, so blocks that are off screen can be skipped. Neighbouring
+ * blocks share their edge vertices; the segments along a shared edge belong to the block after
+ * it.
+ * <p>
+ * A stride above 1 only connects every stride-th row and column, for coarser levels of detail
+ * over the same vertices. Block edges and the last row and column are always kept.
+ * <p>
+ * Filled grids use the same blocks, as triangle strips: each block's cells are walked in
+ * stripes of columns, a row of cells at a time, and every row of a stripe repeats its first and
+ * last index so the strips join with degenerate triangles. Cells aren't shared, so each block
+ * strips all of its own. The winding alternates between rows, so filled grids are drawn without
+ * face culling.
+ * <p>
+ * Blocks are stored as {@link #BLOCK_INTS} ints: first vertex of the tile, first and last row,
+ * first and last column. The index range of each block is stored as a triple: first vertex,
+ * first index and index count.
+ */
+public final class GridIndices {
+    public static final int BLOCK_CELLS = 64;
+    public static final int BLOCK_INTS = 5;
+
+    // Columns walked at a time, sized for a FIFO vertex cache of 16 or more, see VertexCacheStats
+    private static final int STRIPE_COLUMNS = 8;
+    // Cells walked at a time in a strip. A row of a stripe fetches both its rows of vertices the
+    // first time, which has to fit the cache for the next row to reuse the lower one.
+    private static final int STRIP_STRIPE_CELLS = 6;
+
+    private static final int MAX_SHORT_VERTICES = 1 << 16;
+
+    private GridIndices() {
+    }
+
+    public static int[] blocks(int columns, int rows, boolean wide) {
+        int rowsPerTile = wide ? rows : MAX_SHORT_VERTICES / columns;
+        if (rowsPerTile < Math.min(rows, 2)) {
+            throw new IllegalArgumentException("Grid rows of " + columns + " vertices need 32-bit indices");
+        }
+
+        int tileCount = rows <= rowsPerTile ? 1 : (rows - 2) / (rowsPerTile - 1) + 1;
+        int[] blockColumns = kept(0, columns - 1, BLOCK_CELLS);
+        int blocksPerRow = Math.max(1, blockColumns.length - 1);
+
+        int[][] tileRows = new int[tileCount][];
+        int blockCount = 0;
+        int firstRow = 0;
+        for (int tile = 0; tile < tileCount; tile++) {
+            int lastRow = Math.min(rows - 1, firstRow + rowsPerTile - 1);
+            tileRows[tile] = kept(firstRow, lastRow, BLOCK_CELLS);
+            blockCount += Math.max(1, tileRows[tile].length - 1) * blocksPerRow;
+            firstRow = lastRow;
+        }
+
+        int[] blocks = new int[blockCount * BLOCK_INTS];
+        int b = 0;
+        for (int[] blockRows : tileRows) {
+            int firstVertex = blockRows[0] * columns;
+            for (int r = 0; r < Math.max(1, blockRows.length - 1); r++) {
+                for (int c = 0; c < blocksPerRow; c++) {
+                    blocks[b++] = firstVertex;
+                    blocks[b++] = blockRows[r];
+                    blocks[b++] = blockRows[Math.min(r + 1, blockRows.length - 1)];
+                    blocks[b++] = blockColumns[c];
+                    blocks[b++] = blockColumns[Math.min(c + 1, blockColumns.length - 1)];
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Index ranges of the blocks at a level of detail.
+     *
+     * @param firstIndex where the first block's indices start, to store several levels in one
+     *                   buffer.
+     */
+    public static int[] ranges(int[] blocks, int columns, int rows, int stride, int firstIndex) {
+        int[] ranges = new int[blocks.length / BLOCK_INTS * 3];
+        for (int block = 0, r = 0; block < blocks.length; block += BLOCK_INTS, r += 3) {
+            int keptRows = kept(blocks[block + 1], blocks[block + 2], stride).length;
+            int keptColumns = kept(blocks[block + 3], blocks[block + 4], stride).length;
+            int ownRows = blocks[block + 2] == rows - 1 ? keptRows : keptRows - 1;
+            int ownColumns = blocks[block + 4] == columns - 1 ? keptColumns : keptColumns - 1;
+            int count = 2 * (keptColumns - 1) * ownRows + 2 * (keptRows - 1) * ownColumns;
+
+            ranges[r] = blocks[block];
+            ranges[r + 1] = firstIndex;
+            ranges[r + 2] = count;
+            firstIndex += count;
+        }
+        return ranges;
+    }
+
+    /**
+     * Index ranges of the blocks' triangle strips at a level of detail, see {@link #ranges}.
+     */
+    public static int[] stripRanges(int[] blocks, int stride, int firstIndex) {
+        int[] ranges = new int[blocks.length / BLOCK_INTS * 3];
+        for (int block = 0, r = 0; block < blocks.length; block += BLOCK_INTS, r += 3) {
+            int cellRows = kept(blocks[block + 1], blocks[block + 2], stride).length - 1;
+            int cellColumns = kept(blocks[block + 3], blocks[block + 4], stride).length - 1;
+            int stripes = (cellColumns + STRIP_STRIPE_CELLS - 1) / STRIP_STRIPE_CELLS;
+            // Two indices per column of each stripe, one more column per stripe for its right
+            // edge, and the two repeated at the ends
+            int count = cellRows * (2 * (cellColumns + stripes) + 2 * stripes);
+
+            ranges[r] = blocks[block];
+            ranges[r + 1] = firstIndex;
+            ranges[r + 2] = count;
+            firstIndex += count;
+        }
+        return ranges;
+    }
+
+    /**
+     * Index after the last range's.
+     */
+    public static int count(int[] ranges) {
+        int last = ranges.length - 3;
+        return ranges[last + 1] + ranges[last + 2];
+    }
+
+    /**
+     * Writes the indices of every block from its first index, as shorts or ints depending on the
+     * buffer.
+     */
+    public static void write(Buffer indices, int columns, int rows, int[] blocks, int[] ranges, int stride) {
+        for (int block = 0, r = 0; block < blocks.length; block += BLOCK_INTS, r += 3) {
+            int i = ranges[r + 1];
+            int tileFirstRow = blocks[block] / columns;
+            int[] keptRows = kept(blocks[block + 1], blocks[block + 2], stride);
+            int[] keptColumns = kept(blocks[block + 3], blocks[block + 4], stride);
+            // A shared last row or column is drawn by the next block
+            int ownRows = blocks[block + 2] == rows - 1 ? keptRows.length : keptRows.length - 1;
+            int ownColumns = blocks[block + 4] == columns - 1 ? keptColumns.length : keptColumns.length - 1;
+
+            // Walked in stripes of columns, down a row at a time, with each vertex's horizontal
+            // and vertical segment together. The vertices of one row of a stripe are still in
+            // the vertex cache when the next row reuses them.
+            int lastColumn = keptColumns.length - 1;
+            for (int c0 = 0; ; c0 += STRIPE_COLUMNS) {
+                int c1 = Math.min(c0 + STRIPE_COLUMNS, lastColumn);
+                // The right edge belongs to the next stripe, unless this is the last one
+                int verticalEnd = Math.min(c1 == lastColumn ? c1 : c1 - 1, ownColumns - 1);
+                for (int kr = 0; kr < keptRows.length; kr++) {
+                    int rowStart = (keptRows[kr] - tileFirstRow) * columns;
+                    int nextRowStart = kr + 1 < keptRows.length ? (keptRows[kr + 1] - tileFirstRow) * columns : 0;
+                    for (int kc = c0; kc <= c1; kc++) {
+                        if (kc < c1 && kr < ownRows) {
+                            // Horizontal grid line (row constant)
+                            put(indices, i++, rowStart + keptColumns[kc]);
+                            put(indices, i++, rowStart + keptColumns[kc + 1]);
+                        }
+                        if (kc <= verticalEnd && kr + 1 < keptRows.length) {
+                            // Vertical grid line (column constant)
+                            put(indices, i++, rowStart + keptColumns[kc]);
+                            put(indices, i++, nextRowStart + keptColumns[kc]);
+                        }
+                    }
+                }
+                if (c1 == lastColumn) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the triangle strips of every block from its first index, as shorts or ints depending
+     * on the buffer.
+     */
+    public static void writeStrips(Buffer indices, int columns, int[] blocks, int[] ranges, int stride) {
+        for (int block = 0, r = 0; block < blocks.length; block += BLOCK_INTS, r += 3) {
+            int i = ranges[r + 1];
+            int tileFirstRow = blocks[block] / columns;
+            int[] keptRows = kept(blocks[block + 1], blocks[block + 2], stride);
+            int[] keptColumns = kept(blocks[block + 3], blocks[block + 4], stride);
+
+            int lastColumn = keptColumns.length - 1;
+            for (int c0 = 0; c0 < lastColumn; c0 += STRIP_STRIPE_CELLS) {
+                int c1 = Math.min(c0 + STRIP_STRIPE_CELLS, lastColumn);
+                for (int kr = 0; kr + 1 < keptRows.length; kr++) {
+                    int rowStart = (keptRows[kr] - tileFirstRow) * columns;
+                    int nextRowStart = (keptRows[kr + 1] - tileFirstRow) * columns;
+
+                    // Degenerate join from the previous strip
+                    put(indices, i++, rowStart + keptColumns[c0]);
+                    for (int kc = c0; kc <= c1; kc++) {
+                        put(indices, i++, rowStart + keptColumns[kc]);
+                        put(indices, i++, nextRowStart + keptColumns[kc]);
+                    }
+                    // Degenerate join to the next strip
+                    put(indices, i++, nextRowStart + keptColumns[c1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lines kept from {@code first} to {@code last}: both ends and the multiples of the stride
+     * between them.
+     */
+    private static int[] kept(int first, int last, int stride) {
+        int count = 1;
+        for (int line = first; line < last; line = next(line, last, stride)) {
+            count++;
+        }
+        int[] kept = new int[count];
+        int line = first;
+        for (int k = 0; k < count; k++) {
+            kept[k] = line;
+            line = next(line, last, stride);
+        }
+        return kept;
+    }
+
+    private static int next(int line, int last, int stride) {
+        return Math.min(last, (line / stride + 1) * stride);
+    }
+
+    private static void put(Buffer indices, int position, int index) {
+        if (indices instanceof IntBuffer) {
+            ((IntBuffer) indices).put(position, index);
+        } else {
+            ((ShortBuffer) indices).put(position, (short) index);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.pluscubed.graph.mesh;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CPU-side graph geometry. Built off the GL thread and handed to a renderer, which uploads it on
+ * its next draw.
+ * <p>
+ * The buffers are direct and native order, either from a {@link MeshBuilder} or views of a mapped
+ * cache file. They're shared by everyone holding the mesh and only read, from position 0 up to
+ * their limit. Built meshes are reference counted so their buffers can go back to the pool: a
+ * mesh starts with one reference, anyone keeping it calls {@link #retain()}, and every reference
+ * ends with {@link #release()}.
+ */
+public final class Mesh {
+    // (y, z, x) per vertex, or only z for a height field over the grid
+    public final FloatBuffer vertices;
+    // 3, or 1 for a height field
+    public final int coordsPerVertex;
+    // Unit (y, z, x) normal per vertex for lit surfaces, or null
+    public final FloatBuffer normals;
+    // The vertices packed into shorts against min and max, see VertexQuantizer, or null if they
+    // weren't asked for or couldn't be packed
+    public final ShortBuffer packedVertices;
+    // Size of the row-major vertex grid, 0 by 0 for a line strip. The grid's indices only depend
+    // on this, so they're shared on the GPU instead of stored per mesh.
+    public final int columns;
+    public final int rows;
+    public final float[] min;
+    public final float[] max;
+    // Boxes of the grid's blocks for culling, see BlockBounds, or null for a line strip or a
+    // height field
+    public final float[] blockBounds;
+
+    // Pooled memory behind the vertices, normals and packed vertices, or null
+    private final ByteBuffer vertexStorage;
+    private final ByteBuffer normalStorage;
+    private final ByteBuffer packedStorage;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public Mesh(FloatBuffer vertices, int coordsPerVertex, FloatBuffer normals, ShortBuffer packedVertices,
+                int columns, int rows, float[] min, float[] max, float[] blockBounds) {
+        this(vertices, coordsPerVertex, normals, packedVertices, columns, rows, min, max, blockBounds,
+                null, null, null);
+    }
+
+    Mesh(FloatBuffer vertices, int coordsPerVertex, FloatBuffer normals, ShortBuffer packedVertices,
+         int columns, int rows, float[] min, float[] max, float[] blockBounds,
+         ByteBuffer vertexStorage, ByteBuffer normalStorage, ByteBuffer packedStorage) {
+        this.vertices = vertices;
+        this.coordsPerVertex = coordsPerVertex;
+        this.normals = normals;
+        this.packedVertices = packedVertices;
+        this.columns = columns;
+        this.rows = rows;
+        this.min = min;
+        this.max = max;
+        this.blockBounds = blockBounds;
+        this.vertexStorage = vertexStorage;
+        this.normalStorage = normalStorage;
+        this.packedStorage = packedStorage;
+    }
+
+    public int vertexCount() {
+        return vertices.limit() / coordsPerVertex;
+    }
+
+    public boolean isGrid() {
+        return rows > 0;
+    }
+
+    public Mesh retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0) {
+            if (vertexStorage != null) {
+                BufferPool.release(vertexStorage);
+            }
+            if (normalStorage != null) {
+                BufferPool.release(normalStorage);
+            }
+            if (packedStorage != null) {
+                BufferPool.release(packedStorage);
+            }
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Mesh released too many times");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.pluscubed.graph.mesh;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Pooled direct buffers a mesh is written into, so the data never passes through the heap and
+ * can be uploaded as is. Write with absolute puts; {@link #build} hands the buffers to a new
+ * {@link Mesh}, and {@link #close()} returns them to the pool if that never happened.
+ */
+public final class MeshBuilder implements AutoCloseable {
+    private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+    private static final int BYTES_PER_SHORT = Short.SIZE / 8;
+
+    public final FloatBuffer vertices;
+    // (y, z, x) per vertex, or null if the mesh has no normals
+    public final FloatBuffer normals;
+
+    private final int coordsPerVertex;
+    private final boolean packed;
+    private ByteBuffer vertexStorage;
+    private ByteBuffer normalStorage;
+
+    public MeshBuilder(int vertexCount, boolean packed) {
+        this(vertexCount, 3, false, packed);
+    }
+
+    /**
+     * @param coordsPerVertex 3 for (y, z, x), or 1 for a height field.
+     * @param normals         whether to have room for a normal per vertex.
+     * @param packed          whether the mesh also gets its vertices packed into shorts, see
+     *                        {@link Mesh#packedVertices}.
+     */
+    public MeshBuilder(int vertexCount, int coordsPerVertex, boolean normals, boolean packed) {
+        this.coordsPerVertex = coordsPerVertex;
+        this.packed = packed;
+        vertexStorage = BufferPool.acquire(vertexCount * coordsPerVertex * BYTES_PER_FLOAT);
+        vertices = vertexStorage.asFloatBuffer();
+        if (normals) {
+            normalStorage = BufferPool.acquire(vertexCount * 3 * BYTES_PER_FLOAT);
+            this.normals = normalStorage.asFloatBuffer();
+        } else {
+            this.normals = null;
+        }
+    }
+
+    /**
+     * Writes the normal of a vertex from any (y, z, x) vector along it. Where that isn't finite
+     * or has no length, e.g. at a pole or outside the domain, the normal points straight up.
+     */
+    public void putNormal(int vertex, double y, double z, double x) {
+        double length = Math.sqrt(y * y + z * z + x * x);
+        if (!(length > 0) || Double.isInfinite(length)) {
+            y = 0;
+            z = 1;
+            x = 0;
+            length = 1;
+        }
+        int i = vertex * 3;
+        normals.put(i, (float) (y / length));
+        normals.put(i + 1, (float) (z / length));
+        normals.put(i + 2, (float) (x / length));
+    }
+
+    /**
+     * Builds a mesh drawn as a line strip.
+     */
+    public Mesh build(float[] min, float[] max) {
+        return build(0, 0, min, max);
+    }
+
+    /**
+     * Builds a mesh drawn as a grid of {@code columns} by {@code rows} vertices, without block
+     * bounds.
+     */
+    public Mesh build(int columns, int rows, float[] min, float[] max) {
+        return build(columns, rows, min, max, null);
+    }
+
+    /**
+     * Builds a mesh drawn as a grid of {@code columns} by {@code rows} vertices, packing its
+     * vertices first if asked to.
+     *
+     * @param blockBounds boxes of the grid's blocks, see {@link BlockBounds}, or null.
+     */
+    public Mesh build(int columns, int rows, float[] min, float[] max, float[] blockBounds) {
+        ShortBuffer packedVertices = null;
+        ByteBuffer packedStorage = null;
+        if (packed) {
+            packedStorage = BufferPool.acquire(vertices.limit() * BYTES_PER_SHORT);
+            packedVertices = packedStorage.asShortBuffer();
+            if (!VertexQuantizer.quantize(vertices, coordsPerVertex, min, max, packedVertices)) {
+                BufferPool.release(packedStorage);
+                packedStorage = null;
+                packedVertices = null;
+            }
+        }
+        Mesh mesh = new Mesh(vertices, coordsPerVertex, normals, packedVertices, columns, rows, min, max,
+                blockBounds, vertexStorage, normalStorage, packedStorage);
+        vertexStorage = null;
+        normalStorage = null;
+        return mesh;
+    }
+
+    @Override
+    public void close() {
+        if (vertexStorage != null) {
+            BufferPool.release(vertexStorage);
+            vertexStorage = null;
+        }
+        if (normalStorage != null) {
+            BufferPool.release(normalStorage);
+            normalStorage = null;
+        }
+    }
+}
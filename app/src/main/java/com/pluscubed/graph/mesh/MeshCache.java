@@ -0,0 +1,51 @@
+package com.pluscubed.graph.mesh;
+
+import android.util.LruCache;
+
+import java.util.function.Function;
+
+/**
+ * In-memory LRU cache of built meshes, sized by the bytes of vertex and normal data they hold,
+ * packed vertices included. Hit, miss and eviction counts come from {@link LruCache}.
+ */
+public final class MeshCache extends LruCache<MeshKey, Mesh> {
+    private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+    private static final int BYTES_PER_SHORT = Short.SIZE / 8;
+
+    public MeshCache(int maxBytes) {
+        super(maxBytes);
+    }
+
+    public static int byteSize(Mesh mesh) {
+        int floats = mesh.vertices.limit() + (mesh.normals != null ? mesh.normals.limit() : 0)
+                + (mesh.blockBounds != null ? mesh.blockBounds.length : 0);
+        int shorts = mesh.packedVertices != null ? mesh.packedVertices.limit() : 0;
+        return floats * BYTES_PER_FLOAT + shorts * BYTES_PER_SHORT;
+    }
+
+    /**
+     * Returns the cached mesh for {@code key}, or builds and caches it. The caller gets its own
+     * reference to the mesh. Exceptions from {@code builder}, such as cancellation, leave the
+     * cache untouched. Only called from the mesh thread, so a hit can't be evicted before it's
+     * retained.
+     */
+    public Mesh getOrBuild(MeshKey key, Function<MeshKey, Mesh> builder) {
+        Mesh mesh = get(key);
+        if (mesh != null) {
+            return mesh.retain();
+        }
+        mesh = builder.apply(key);
+        put(key, mesh.retain());
+        return mesh;
+    }
+
+    @Override
+    protected int sizeOf(MeshKey key, Mesh mesh) {
+        return byteSize(mesh);
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, MeshKey key, Mesh oldValue, Mesh newValue) {
+        oldValue.release();
+    }
+}
@@ -0,0 +1,379 @@
+package com.pluscubed.graph.mesh;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Meshes saved across launches, one file per {@link MeshKey}. Files are read back with
+ * {@link FileChannel#map} and the mesh buffers are views of the mapping, so nothing is copied
+ * onto the heap. Files are written to a temporary name and renamed into place, and the least
+ * recently used ones are deleted once the directory is over its byte cap.
+ * <p>
+ * File layout, in native byte order: magic, version, key length and UTF-8 key padded to 4 bytes,
+ * vertex float count, floats per vertex, normal float count, block bound float count, packed
+ * vertex short count, grid columns and rows, min[3], max[3], vertex floats, normal floats, block
+ * bound floats, packed vertex shorts.
+ * <p>
+ * Reads happen on the calling thread, which is the mesh thread. Writes run on the cache's own
+ * thread so a rebuilt mesh never waits on the disk.
+ */
+public final class MeshDiskCache {
+    private static final String TAG = MeshDiskCache.class.getSimpleName();
+
+    // "MESH", read back wrong on a device with the other byte order
+    private static final int MAGIC = 0x4D455348;
+    private static final int VERSION = 7;
+
+    private static final String SUFFIX = ".mesh";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int BYTES_PER_INT = Integer.SIZE / 8;
+    private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+    private static final int BYTES_PER_SHORT = Short.SIZE / 8;
+
+    private static final int WRITE_CHUNK_BYTES = 64 * 1024;
+
+    private final File directory;
+    private final long maxBytes;
+
+    // A daemon, since a write cut short only leaves a temporary file behind
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, TAG);
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Keys queued or being written, so a mesh rebuilt before its file lands isn't written twice
+    private final Set<MeshKey> writing = ConcurrentHashMap.newKeySet();
+
+    public MeshDiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Couldn't create " + directory);
+        }
+        // Left behind by writes that didn't finish
+        File[] temps = directory.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX));
+        if (temps != null) {
+            for (File temp : temps) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the saved mesh for {@code key}, or builds it and returns it while it's saved in the
+     * background. Failing to read or write the cache only costs a rebuild.
+     */
+    public Mesh getOrBuild(MeshKey key, Function<MeshKey, Mesh> builder) {
+        Mesh mesh = read(key);
+        if (mesh == null) {
+            mesh = builder.apply(key);
+            writeLater(key, mesh);
+        }
+        return mesh;
+    }
+
+    /**
+     * Queues {@code mesh} to be saved, holding a reference to it until it's written.
+     */
+    public void writeLater(MeshKey key, Mesh mesh) {
+        if (!writing.add(key)) {
+            return;
+        }
+        mesh.retain();
+        writer.execute(() -> {
+            try {
+                write(key, mesh);
+            } finally {
+                writing.remove(key);
+                mesh.release();
+            }
+        });
+    }
+
+    /**
+     * Lets queued writes finish, then stops the writer thread.
+     */
+    public void shutdown() {
+        writer.shutdown();
+    }
+
+    public Mesh read(MeshKey key) {
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            Mesh mesh = map(file, key);
+            if (mesh == null) {
+                // Corrupt, stale version or hash collision
+                file.delete();
+                return null;
+            }
+            // Keeps it recently used for eviction
+            file.setLastModified(System.currentTimeMillis());
+            return mesh;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves {@code mesh} on the calling thread.
+     */
+    public void write(MeshKey key, Mesh mesh) {
+        File file = fileFor(key);
+        File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            FileChannel channel = out.getChannel();
+            writeFully(channel, header(key, mesh));
+
+            ByteBuffer chunk = ByteBuffer.allocateDirect(WRITE_CHUNK_BYTES).order(ByteOrder.nativeOrder());
+            writeFloats(channel, mesh.vertices, chunk);
+            if (mesh.normals != null) {
+                writeFloats(channel, mesh.normals, chunk);
+            }
+            if (mesh.blockBounds != null) {
+                writeFloats(channel, FloatBuffer.wrap(mesh.blockBounds), chunk);
+            }
+            if (mesh.packedVertices != null) {
+                writeShorts(channel, mesh.packedVertices, chunk);
+            }
+
+            // On disk before the rename makes it visible
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file, e);
+            temp.delete();
+            return;
+        }
+
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Failed to rename " + temp);
+            temp.delete();
+            return;
+        }
+        trim();
+    }
+
+    /**
+     * Deletes the least recently used files until the directory fits in the byte cap.
+     */
+    private void trim() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private File fileFor(MeshKey key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return new File(directory, name + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteBuffer header(MeshKey key, Mesh mesh) {
+        byte[] keyBytes = key.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(headerSize(keyBytes.length)).order(ByteOrder.nativeOrder());
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(keyBytes.length);
+        header.put(keyBytes);
+        header.position(padded(header.position()));
+        header.putInt(mesh.vertices.limit());
+        header.putInt(mesh.coordsPerVertex);
+        header.putInt(mesh.normals != null ? mesh.normals.limit() : 0);
+        header.putInt(mesh.blockBounds != null ? mesh.blockBounds.length : 0);
+        header.putInt(mesh.packedVertices != null ? mesh.packedVertices.limit() : 0);
+        header.putInt(mesh.columns);
+        header.putInt(mesh.rows);
+        for (int i = 0; i < 3; i++) {
+            header.putFloat(mesh.min[i]);
+        }
+        for (int i = 0; i < 3; i++) {
+            header.putFloat(mesh.max[i]);
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Maps {@code file}, returning null if it isn't a valid mesh for {@code key}.
+     */
+    private static Mesh map(File file, MeshKey key) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            // The mapping stays valid after the channel is closed
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        }
+        buffer.order(ByteOrder.nativeOrder());
+
+        if (buffer.remaining() < 3 * BYTES_PER_INT
+                || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        int keyLength = buffer.getInt();
+        byte[] expectedKey = key.toString().getBytes(StandardCharsets.UTF_8);
+        if (keyLength != expectedKey.length || buffer.capacity() < headerSize(keyLength)) {
+            return null;
+        }
+        byte[] keyBytes = new byte[keyLength];
+        buffer.get(keyBytes);
+        if (!Arrays.equals(keyBytes, expectedKey)) {
+            return null;
+        }
+        buffer.position(padded(buffer.position()));
+
+        int vertexFloats = buffer.getInt();
+        int coordsPerVertex = buffer.getInt();
+        int normalFloats = buffer.getInt();
+        int boundFloats = buffer.getInt();
+        int packedShorts = buffer.getInt();
+        int columns = buffer.getInt();
+        int rows = buffer.getInt();
+        float[] min = new float[3];
+        float[] max = new float[3];
+        for (int i = 0; i < 3; i++) {
+            min[i] = buffer.getFloat();
+        }
+        for (int i = 0; i < 3; i++) {
+            max[i] = buffer.getFloat();
+        }
+
+        long floatBytes = ((long) vertexFloats + normalFloats + boundFloats) * BYTES_PER_FLOAT;
+        long end = buffer.position() + floatBytes + (long) packedShorts * BYTES_PER_SHORT;
+        if (vertexFloats < 0 || normalFloats < 0 || boundFloats < 0 || end != buffer.capacity()
+                || coordsPerVertex <= 0
+                || (rows > 0 && (long) columns * rows * coordsPerVertex != vertexFloats)
+                || (normalFloats > 0 && (long) vertexFloats / coordsPerVertex * 3 != normalFloats)
+                || (boundFloats > 0
+                && (rows <= 0 || BlockBounds.along(columns) * BlockBounds.along(rows) * 6 != boundFloats))
+                || (packedShorts != 0 && packedShorts != vertexFloats)) {
+            return null;
+        }
+
+        // slice() resets the byte order
+        FloatBuffer floats = buffer.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        FloatBuffer vertices = floats.duplicate();
+        vertices.limit(vertexFloats);
+        FloatBuffer normals = null;
+        if (normalFloats > 0) {
+            floats.position(vertexFloats);
+            normals = floats.slice();
+            normals.limit(normalFloats);
+        }
+        float[] blockBounds = null;
+        if (boundFloats > 0) {
+            blockBounds = new float[boundFloats];
+            floats.position(vertexFloats + normalFloats);
+            floats.get(blockBounds);
+        }
+        ShortBuffer packedVertices = null;
+        if (packedShorts > 0) {
+            buffer.position(buffer.position() + (int) floatBytes);
+            packedVertices = buffer.slice().order(ByteOrder.nativeOrder()).asShortBuffer();
+        }
+        return new Mesh(vertices, coordsPerVertex, normals, packedVertices, columns, rows, min, max,
+                blockBounds);
+    }
+
+    private static void writeFloats(FileChannel channel, FloatBuffer floats, ByteBuffer chunk)
+            throws IOException {
+        // Both native order, so each chunk is one bulk copy. The view spans the chunk's remaining
+        // bytes, so the chunk is cleared first.
+        chunk.clear();
+        FloatBuffer chunkFloats = chunk.asFloatBuffer();
+        FloatBuffer slice = floats.duplicate();
+        for (int start = 0; start < floats.limit(); start += chunkFloats.capacity()) {
+            int count = Math.min(floats.limit() - start, chunkFloats.capacity());
+            slice.limit(start + count).position(start);
+            chunkFloats.clear();
+            chunkFloats.put(slice);
+
+            chunk.clear();
+            chunk.limit(count * BYTES_PER_FLOAT);
+            writeFully(channel, chunk);
+        }
+    }
+
+    private static void writeShorts(FileChannel channel, ShortBuffer shorts, ByteBuffer chunk)
+            throws IOException {
+        // As writeFloats
+        chunk.clear();
+        ShortBuffer chunkShorts = chunk.asShortBuffer();
+        ShortBuffer slice = shorts.duplicate();
+        for (int start = 0; start < shorts.limit(); start += chunkShorts.capacity()) {
+            int count = Math.min(shorts.limit() - start, chunkShorts.capacity());
+            slice.limit(start + count).position(start);
+            chunkShorts.clear();
+            chunkShorts.put(slice);
+
+            chunk.clear();
+            chunk.limit(count * BYTES_PER_SHORT);
+            writeFully(channel, chunk);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int headerSize(int keyLength) {
+        // magic, version, key length, key, vertex count, floats per vertex, normal count, bound
+        // count, packed count, columns, rows, min, max
+        return padded(3 * BYTES_PER_INT + keyLength) + 7 * BYTES_PER_INT + 6 * BYTES_PER_FLOAT;
+    }
+
+    private static int padded(int offset) {
+        return (offset + 3) & ~3;
+    }
+}
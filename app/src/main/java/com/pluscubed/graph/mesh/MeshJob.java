@@ -0,0 +1,41 @@
+package com.pluscubed.graph.mesh;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Handle for one mesh build run by {@link MeshScheduler}. Builders call {@link #checkpoint()}
+ * between rows so a superseded or over-budget build stops early.
+ */
+public final class MeshJob {
+    private volatile boolean cancelled;
+    private volatile long deadline;
+    private volatile boolean started;
+
+    MeshJob() {
+    }
+
+    void start(long budgetNanos) {
+        deadline = System.nanoTime() + budgetNanos;
+        started = true;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws CancellationException if the job was cancelled or has used up its time budget.
+     */
+    public void checkpoint() {
+        if (cancelled) {
+            throw new CancellationException("Mesh job cancelled");
+        }
+        if (started && System.nanoTime() - deadline > 0) {
+            throw new CancellationException("Mesh job over budget");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.pluscubed.graph.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Everything a graph mesh is built from: the expressions, the evaluated bounds and the number of
+ * samples along each parameter. Two equal keys always produce the same mesh.
+ */
+public final class MeshKey {
+    public static final String FUNCTION = "function";
+    public static final String SURFACE = "surface";
+    public static final String CURVE = "curve";
+
+    public final String type;
+    // Whitespace removed, since it doesn't change the meaning
+    public final String[] expressions;
+    // Min and max of each parameter
+    public final float[] bounds;
+    public final int[] steps;
+    // Whether the mesh has normals, for lit surfaces
+    public final boolean normals;
+    // Whether the mesh has its vertices packed into shorts, see VertexQuantizer
+    public final boolean quantized;
+
+    public MeshKey(String type, String[] expressions, float[] bounds, int[] steps, boolean quantized) {
+        this(type, expressions, bounds, steps, false, quantized);
+    }
+
+    public MeshKey(String type, String[] expressions, float[] bounds, int[] steps, boolean normals,
+                   boolean quantized) {
+        this.type = type;
+        this.expressions = new String[expressions.length];
+        for (int i = 0; i < expressions.length; i++) {
+            this.expressions[i] = expressions[i].replaceAll("\\s+", "");
+        }
+        this.bounds = bounds;
+        this.steps = steps;
+        this.normals = normals;
+        this.quantized = quantized;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MeshKey)) return false;
+        MeshKey key = (MeshKey) o;
+        return type.equals(key.type)
+                && Arrays.equals(expressions, key.expressions)
+                && Arrays.equals(bounds, key.bounds)
+                && Arrays.equals(steps, key.steps)
+                && normals == key.normals
+                && quantized == key.quantized;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = type.hashCode();
+        result = 31 * result + Arrays.hashCode(expressions);
+        result = 31 * result + Arrays.hashCode(bounds);
+        result = 31 * result + Arrays.hashCode(steps);
+        result = 31 * result + (normals ? 1 : 0);
+        result = 31 * result + (quantized ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return type + Arrays.toString(expressions) + Arrays.toString(bounds) + Arrays.toString(steps)
+                + (normals ? "+normals" : "") + (quantized ? "+quantized" : "");
+    }
+}
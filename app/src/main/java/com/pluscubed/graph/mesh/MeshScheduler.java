@@ -0,0 +1,145 @@
+package com.pluscubed.graph.mesh;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs mesh builds one at a time on a background thread (each build is parallel internally).
+ * Requests are coalesced per key, so only the latest one for a graph is kept, and submitting a
+ * request cancels the key's running build. Pending builds run highest priority first, and each
+ * build is abandoned once it has run longer than the time budget.
+ */
+public final class MeshScheduler {
+    public static final int PRIORITY_HIDDEN = 0;
+    public static final int PRIORITY_VISIBLE = 1;
+
+    private static final String TAG = MeshScheduler.class.getSimpleName();
+
+    public interface Builder {
+        /**
+         * Builds the mesh, calling {@link MeshJob#checkpoint()} regularly. The scheduler releases
+         * the returned reference once the target has it.
+         */
+        Mesh build(MeshJob job);
+    }
+
+    private static final class Entry {
+        final Object key;
+        final Builder builder;
+        final Consumer<Mesh> target;
+        final long sequence;
+        final MeshJob job = new MeshJob();
+
+        Entry(Object key, Builder builder, Consumer<Mesh> target, long sequence) {
+            this.key = key;
+            this.builder = builder;
+            this.target = target;
+            this.sequence = sequence;
+        }
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final long budgetNanos;
+
+    // One runNext() is queued on the executor per pending entry
+    private final Map<Object, Entry> pending = new HashMap<>();
+    private final Map<Object, Integer> priorities = new HashMap<>();
+    private Entry running;
+    private long sequence;
+
+    public MeshScheduler(long budgetMillis) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    /**
+     * Queues a build for {@code key}, replacing any pending one and cancelling a running one.
+     * {@code target} receives the mesh on the scheduler thread if the build wasn't superseded, and
+     * retains it if it keeps it.
+     */
+    public synchronized void submit(Object key, Builder builder, Consumer<Mesh> target) {
+        Entry previous = pending.put(key, new Entry(key, builder, target, sequence++));
+        if (running != null && running.key.equals(key)) {
+            running.job.cancel();
+        }
+        if (previous == null) {
+            executor.execute(this::runNext);
+        }
+    }
+
+    /**
+     * Sets the priority of {@code key}'s builds, {@link #PRIORITY_VISIBLE} by default.
+     */
+    public synchronized void setPriority(Object key, int priority) {
+        priorities.put(key, priority);
+    }
+
+    public synchronized void shutdown() {
+        pending.clear();
+        if (running != null) {
+            running.job.cancel();
+        }
+        executor.shutdownNow();
+    }
+
+    private synchronized Entry takeNext() {
+        Entry next = null;
+        int nextPriority = 0;
+        for (Entry entry : pending.values()) {
+            int priority = priorityOf(entry.key);
+            if (next == null || priority > nextPriority
+                    || (priority == nextPriority && entry.sequence < next.sequence)) {
+                next = entry;
+                nextPriority = priority;
+            }
+        }
+        if (next != null) {
+            pending.remove(next.key);
+            running = next;
+        }
+        return next;
+    }
+
+    private int priorityOf(Object key) {
+        Integer priority = priorities.get(key);
+        return priority != null ? priority : PRIORITY_VISIBLE;
+    }
+
+    private void runNext() {
+        Entry entry = takeNext();
+        if (entry == null) {
+            return;
+        }
+
+        MeshJob job = entry.job;
+        Mesh mesh = null;
+        try {
+            job.start(budgetNanos);
+            mesh = entry.builder.build(job);
+            if (!job.isCancelled()) {
+                entry.target.accept(mesh);
+            }
+        } catch (CancellationException e) {
+            if (!job.isCancelled()) {
+                Log.w(TAG, "Mesh build for " + entry.key + " abandoned after "
+                        + TimeUnit.NANOSECONDS.toMillis(budgetNanos) + "ms");
+            }
+        } catch (Throwable t) {
+            // A bad expression shouldn't take down the mesh thread
+            Log.e(TAG, "Exception building a graph mesh", t);
+        } finally {
+            if (mesh != null) {
+                mesh.release();
+            }
+            synchronized (this) {
+                running = null;
+            }
+        }
+    }
+}
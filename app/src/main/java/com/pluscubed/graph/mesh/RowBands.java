@@ -0,0 +1,69 @@
+package com.pluscubed.graph.mesh;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Splits a row loop into contiguous bands and runs them in parallel, one band per core. The
+ * calling thread runs the first band itself and waits for the rest.
+ */
+public final class RowBands {
+    // Fewer rows than this per band isn't worth the hand-off
+    private static final int MIN_ROWS_PER_BAND = 8;
+
+    public interface Task {
+        /**
+         * Processes rows {@code [fromRow, toRow)}. Called concurrently for different bands, so
+         * anything mutable (evaluators, scratch arrays) must be created per band.
+         */
+        void run(int band, int fromRow, int toRow);
+    }
+
+    private RowBands() {
+    }
+
+    /**
+     * Number of bands {@link #run(int, int, Task)} should use for {@code rows} rows.
+     */
+    public static int count(int rows) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores, rows / MIN_ROWS_PER_BAND));
+    }
+
+    public static void run(int rows, int bands, Task task) {
+        if (bands <= 1) {
+            task.run(0, 0, rows);
+            return;
+        }
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        ForkJoinTask<?>[] forked = new ForkJoinTask<?>[bands];
+        for (int band = 1; band < bands; band++) {
+            final int b = band;
+            forked[band] = pool.submit(() -> task.run(b, from(rows, bands, b), from(rows, bands, b + 1)));
+        }
+        // Every band is waited for even if one fails, so none is still writing when this returns
+        RuntimeException failure = null;
+        try {
+            task.run(0, 0, from(rows, bands, 1));
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        for (int band = 1; band < bands; band++) {
+            try {
+                forked[band].join();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static int from(int rows, int bands, int band) {
+        return (int) ((long) rows * band / bands);
+    }
+}
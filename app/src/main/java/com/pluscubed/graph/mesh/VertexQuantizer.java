@@ -0,0 +1,70 @@
+package com.pluscubed.graph.mesh;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Packs mesh vertices into 16-bit shorts spread over the mesh's bounding box, halving what's
+ * uploaded and kept on the GPU. The shader decodes each component as {@code stored * scale +
+ * offset}; the shorts are passed unnormalized, since ES 2 and 3 map normalized shorts to floats
+ * differently.
+ * <p>
+ * The error is at most half a step, 1/131070 of the box along each axis: well under a millimetre
+ * for a graph scaled to a metre, where a pixel at arm's length is about a millimetre.
+ * <p>
+ * Shorts have no NaN, so meshes with undefined samples stay floats: their NaNs are what leave
+ * gaps where the graph isn't defined.
+ * <p>
+ * Packing runs where the mesh is built, see {@link MeshBuilder}, so the shorts are cached with
+ * the mesh and the GL thread only uploads them.
+ */
+public final class VertexQuantizer {
+    private static final int STEPS = 65535;
+
+    private VertexQuantizer() {
+    }
+
+    /**
+     * Finds how to decode each (y, z, x) component of vertices packed against the box from
+     * {@code min} to {@code max}.
+     */
+    public static void decoding(float[] min, float[] max, float[] scale, float[] offset) {
+        for (int i = 0; i < 3; i++) {
+            scale[i] = (max[i] - min[i]) / STEPS;
+            // Stored values start at Short.MIN_VALUE
+            offset[i] = min[i] - Short.MIN_VALUE * scale[i];
+        }
+    }
+
+    /**
+     * Packs {@code vertices} into {@code packed} against the box from {@code min} to {@code max}.
+     * Vertices with one float are heights, packed as z.
+     *
+     * @return false if the box or any vertex isn't finite, leaving {@code packed} partly written.
+     */
+    static boolean quantize(FloatBuffer vertices, int coordsPerVertex, float[] min, float[] max,
+                            ShortBuffer packed) {
+        float[] scale = new float[3];
+        for (int i = 0; i < 3; i++) {
+            if (Float.isInfinite(max[i] - min[i]) || Float.isNaN(max[i] - min[i])) {
+                return false;
+            }
+            scale[i] = (max[i] - min[i]) / STEPS;
+        }
+
+        int count = vertices.limit();
+        for (int i = 0; i < count; i++) {
+            float value = vertices.get(i);
+            if (Float.isNaN(value) || Float.isInfinite(value)) {
+                return false;
+            }
+            int component = coordsPerVertex == 1 ? 1 : i % coordsPerVertex;
+            float step = scale[component];
+            // Flat along this axis, every value is min
+            int stored = step > 0 ? Math.round((value - min[component]) / step) : 0;
+            packed.put(i, (short) (Math.max(0, Math.min(STEPS, stored)) + Short.MIN_VALUE));
+        }
+        packed.limit(count);
+        return true;
+    }
+}
@@ -13,12 +13,13 @@ import java.nio.FloatBuffer;
 
 public class AxesRenderer {
     private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
-    private static final int COORDS_PER_VERTEX = 3;
+    // Line width in pixels
+    private static final float LINE_WIDTH = 15;
 
     private static final String TAG = AxesRenderer.class.getSimpleName();
 
     // Shader names.
-    private static final String VERTEX_SHADER_NAME = "shaders/axes.vert";
+    private static final String VERTEX_SHADER_NAME = ThickLines.VERTEX_SHADER_NAME;
     private static final String FRAGMENT_SHADER_NAME = "shaders/axes.frag";
 
     private final float[] modelMatrix = new float[16];
@@ -34,10 +35,14 @@ public class AxesRenderer {
     private int program;
 
     private int vertexBufferId;
+    // First stored vertex of each axis, then the end of the last
+    private final int[] axisStarts = new int[4];
 
-    private int positionHandle;
+    private final ThickLines thickLines = new ThickLines();
     private int colorHandle;
     private int mvpMatrixHandle;
+    private int positionScaleHandle;
+    private int positionOffsetHandle;
 
     public void createOnGlThread(Context context) throws IOException {
         final int vertexShader =
@@ -50,9 +55,11 @@ public class AxesRenderer {
         GLES20.glAttachShader(program, fragmentShader);
         GLES20.glLinkProgram(program);
 
-        positionHandle = GLES20.glGetAttribLocation(program, "a_Position");
-        colorHandle = GLES20.glGetUniformLocation(program, "v_Color");
+        thickLines.createOnGlThread(program);
+        colorHandle = GLES20.glGetUniformLocation(program, "u_Color");
         mvpMatrixHandle = GLES20.glGetUniformLocation(program, "u_ModelViewProjection");
+        positionScaleHandle = GLES20.glGetUniformLocation(program, "u_PositionScale");
+        positionOffsetHandle = GLES20.glGetUniformLocation(program, "u_PositionOffset");
 
         // AXES
 
@@ -70,21 +77,28 @@ public class AxesRenderer {
 
         // -----
 
-        int[] buffers = new int[1];
-        GLES20.glGenBuffers(1, buffers, 0);
-        vertexBufferId = buffers[0];
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-
         ByteBuffer bb = ByteBuffer.allocateDirect(vertices.length * BYTES_PER_FLOAT);
         bb.order(ByteOrder.nativeOrder());
-        FloatBuffer vertexBuffer = bb.asFloatBuffer();
-        vertexBuffer
+        FloatBuffer points = bb.asFloatBuffer();
+        points
                 .put(vertices)
                 .position(0);
 
+        // Each axis is a polyline of its two points
+        FloatBuffer vertexBuffer = (FloatBuffer) thickLines.buffer(3 * ThickLines.vertexCount(2), false);
+        for (int axis = 0; axis < 3; axis++) {
+            points.position(axis * 6);
+            axisStarts[axis + 1] = ThickLines.put(points.slice(), 2, 1, vertexBuffer, axisStarts[axis]);
+        }
+
+        int[] buffers = new int[1];
+        GLES20.glGenBuffers(1, buffers, 0);
+        vertexBufferId = buffers[0];
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+
         GLES20.glBufferData(
                 GLES20.GL_ARRAY_BUFFER,
-                vertices.length * BYTES_PER_FLOAT,
+                vertexBuffer.limit() * BYTES_PER_FLOAT,
                 vertexBuffer,
                 GLES20.GL_STATIC_DRAW
         );
@@ -121,33 +135,20 @@ public class AxesRenderer {
         GLES20.glUseProgram(program);
 
         GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        GLES20.glVertexAttribPointer(
-                positionHandle,
-                COORDS_PER_VERTEX,
-                GLES20.GL_FLOAT,
-                false,
-                0,
-                0
-        );
-
+        thickLines.bind(GLES20.GL_FLOAT, LINE_WIDTH);
 
         GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, modelViewProjectionMatrix, 0);
+        GLES20.glUniform3f(positionScaleHandle, 1, 1, 1);
+        GLES20.glUniform3f(positionOffsetHandle, 0, 0, 0);
 
         //AXES
-        GLES20.glLineWidth(15);
-
-        GLES20.glUniform4fv(colorHandle, 1, colors[0], 0);
-        GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, 0, 2);
-
-        GLES20.glUniform4fv(colorHandle, 1, colors[1], 0);
-        GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, 2, 2);
-
-        GLES20.glUniform4fv(colorHandle, 1, colors[2], 0);
-        GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, 4, 2);
 
+        for (int axis = 0; axis < 3; axis++) {
+            GLES20.glUniform4fv(colorHandle, 1, colors[axis], 0);
+            thickLines.draw(axisStarts[axis], axisStarts[axis + 1]);
+        }
 
-        GLES20.glDisableVertexAttribArray(positionHandle);
+        thickLines.unbind();
 
         GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
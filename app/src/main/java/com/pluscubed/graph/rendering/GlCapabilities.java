@@ -0,0 +1,41 @@
+package com.pluscubed.graph.rendering;
+
+import android.opengl.GLES20;
+
+/**
+ * Optional GL features the graph renderers use, read once the context exists. Meshes are built on
+ * other threads, so the results are readable from anywhere.
+ */
+public final class GlCapabilities {
+    private static volatile boolean uintIndices;
+    private static volatile boolean standardDerivatives;
+
+    private GlCapabilities() {
+    }
+
+    /**
+     * Reads the capabilities of the current context. Must be called on the GL thread.
+     */
+    public static void init() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        uintIndices = (version != null && version.startsWith("OpenGL ES 3"))
+                || (extensions != null && extensions.contains("GL_OES_element_index_uint"));
+        // Shaders are GLSL ES 1.00 even in an ES 3 context, so only the extension counts
+        standardDerivatives = extensions != null && extensions.contains("GL_OES_standard_derivatives");
+    }
+
+    /**
+     * Whether glDrawElements accepts {@code GL_UNSIGNED_INT} indices.
+     */
+    public static boolean hasUintIndices() {
+        return uintIndices;
+    }
+
+    /**
+     * Whether fragment shaders have {@code fwidth()}, for wireframes drawn over triangles.
+     */
+    public static boolean hasStandardDerivatives() {
+        return standardDerivatives;
+    }
+}
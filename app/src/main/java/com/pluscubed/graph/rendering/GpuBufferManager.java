@@ -0,0 +1,111 @@
+package com.pluscubed.graph.rendering;
+
+import android.opengl.GLES20;
+
+import com.pluscubed.graph.arcore.rendering.ShaderUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns the GL buffer objects of the graph renderers. Each renderer keeps its buffers across
+ * rebuilds: new data is written with glBufferSubData when it fits, otherwise the buffer is
+ * reallocated with some headroom. Also counts the live buffers and their bytes.
+ * <p>
+ * Everything except the counts must be called on the GL thread.
+ */
+public class GpuBufferManager {
+    private static final String TAG = GpuBufferManager.class.getSimpleName();
+
+    // Headroom when a buffer is reallocated, so a slightly bigger rebuild still fits
+    private static final float GROWTH = 1.5f;
+    // Reallocated smaller when the data uses less than a quarter of it
+    private static final int SHRINK_DIVISOR = 4;
+
+    public static final class Buffer {
+        private final int target;
+        private int id;
+        private int capacity;
+
+        private Buffer(int target) {
+            this.target = target;
+        }
+
+        /**
+         * GL name of the buffer, 0 until the first upload.
+         */
+        public int id() {
+            return id;
+        }
+    }
+
+    private final List<Buffer> buffers = new ArrayList<>();
+    private volatile int liveBuffers;
+    private volatile long liveBytes;
+
+    /**
+     * @param target {@code GL_ARRAY_BUFFER} or {@code GL_ELEMENT_ARRAY_BUFFER}.
+     */
+    public Buffer create(int target) {
+        Buffer buffer = new Buffer(target);
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Replaces the contents of {@code buffer} with the first {@code bytes} of {@code data}.
+     */
+    public void upload(Buffer buffer, java.nio.Buffer data, int bytes) {
+        if (buffer.id == 0) {
+            int[] ids = new int[1];
+            GLES20.glGenBuffers(1, ids, 0);
+            buffer.id = ids[0];
+            liveBuffers++;
+        }
+        GLES20.glBindBuffer(buffer.target, buffer.id);
+
+        if (bytes > buffer.capacity || bytes < buffer.capacity / SHRINK_DIVISOR) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE, (long) (bytes * GROWTH));
+            // New storage orphans the old one, so a draw still reading it doesn't stall
+            GLES20.glBufferData(buffer.target, capacity, null, GLES20.GL_STATIC_DRAW);
+            liveBytes += capacity - buffer.capacity;
+            buffer.capacity = capacity;
+        }
+        GLES20.glBufferSubData(buffer.target, 0, bytes, data);
+
+        GLES20.glBindBuffer(buffer.target, 0);
+        ShaderUtil.checkGLError(TAG, "after upload");
+    }
+
+    public void release(Buffer buffer) {
+        if (buffer.id != 0) {
+            GLES20.glDeleteBuffers(1, new int[]{buffer.id}, 0);
+            liveBuffers--;
+            liveBytes -= buffer.capacity;
+            buffer.id = 0;
+            buffer.capacity = 0;
+        }
+        buffers.remove(buffer);
+    }
+
+    /**
+     * Forgets every buffer after the GL context is lost; the buffers went with it. Each is
+     * recreated on its next upload.
+     */
+    public void invalidate() {
+        for (Buffer buffer : buffers) {
+            buffer.id = 0;
+            buffer.capacity = 0;
+        }
+        liveBuffers = 0;
+        liveBytes = 0;
+    }
+
+    public int liveBuffers() {
+        return liveBuffers;
+    }
+
+    public long liveBytes() {
+        return liveBytes;
+    }
+}
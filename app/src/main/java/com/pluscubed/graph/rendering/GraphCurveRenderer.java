@@ -6,43 +6,72 @@ import android.opengl.Matrix;
 
 import com.pluscubed.graph.Utils;
 import com.pluscubed.graph.arcore.rendering.ShaderUtil;
-
-import org.mariuszgromada.math.mxparser.Argument;
-import org.mariuszgromada.math.mxparser.Expression;
+import com.pluscubed.graph.math.CompiledExpression;
+import com.pluscubed.graph.math.Evaluator;
+import com.pluscubed.graph.mesh.Mesh;
+import com.pluscubed.graph.mesh.MeshBuilder;
+import com.pluscubed.graph.mesh.MeshJob;
+import com.pluscubed.graph.mesh.MeshKey;
+import com.pluscubed.graph.mesh.VertexQuantizer;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class GraphCurveRenderer {
     public static final int SCALE_FACTOR_INCREMENTS = 4000;
 
     private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
-    private static final int COORDS_PER_VERTEX = 3;
+    private static final int BYTES_PER_SHORT = Short.SIZE / 8;
+    // Line width in pixels
+    private static final float LINE_WIDTH = 15;
 
     private static final String TAG = GraphCurveRenderer.class.getSimpleName();
 
     // Shader names.
-    private static final String VERTEX_SHADER_NAME = "shaders/graph.vert";
+    private static final String VERTEX_SHADER_NAME = ThickLines.VERTEX_SHADER_NAME;
     private static final String FRAGMENT_SHADER_NAME = "shaders/graph.frag";
 
     private final float[] modelMatrix = new float[16];
     private final float[] modelViewMatrix = new float[16];
     private final float[] modelViewProjectionMatrix = new float[16];
 
-    private int vertexCount;
     private int program;
 
     private float[] min;
     private float[] max;
 
-    private int vertexBufferId;
+    private final GpuBufferManager bufferManager;
+    private GpuBufferManager.Buffer vertexBuffer;
+
+    private final ThickLines thickLines = new ThickLines();
+    // First stored vertex of each level of detail, then the end of the last
+    private final int[] levelStarts = new int[LevelOfDetail.STRIDES.length + 1];
+    private int vertexCount;
 
-    private int positionHandle;
     private int mvpMatrixHandle;
     private int minHandle;
     private int maxHandle;
+    private int positionScaleHandle;
+    private int positionOffsetHandle;
+
+    // Latest mesh not yet uploaded, set from the mesh thread
+    private final AtomicReference<Mesh> pendingMesh = new AtomicReference<>();
+    // Only compared by identity, its buffers may already be back in the pool
+    private Mesh uploadedMesh;
+    private final LevelOfDetail levelOfDetail = new LevelOfDetail();
+
+    // Decoding of the uploaded vertices, if they're shorts
+    private final float[] positionScale = new float[3];
+    private final float[] positionOffset = new float[3];
+    // Whether the uploaded vertices are shorts
+    private boolean quantized;
+
+    public GraphCurveRenderer(GpuBufferManager bufferManager) {
+        this.bufferManager = bufferManager;
+    }
 
     public void createOnGlThread(Context context) throws IOException {
         final int vertexShader =
@@ -55,23 +84,28 @@ public class GraphCurveRenderer {
         GLES20.glAttachShader(program, fragmentShader);
         GLES20.glLinkProgram(program);
 
-        positionHandle = GLES20.glGetAttribLocation(program, "a_Position");
+        thickLines.createOnGlThread(program);
         mvpMatrixHandle = GLES20.glGetUniformLocation(program, "u_ModelViewProjection");
         minHandle = GLES20.glGetUniformLocation(program, "u_Min");
         maxHandle = GLES20.glGetUniformLocation(program, "u_Max");
+        positionScaleHandle = GLES20.glGetUniformLocation(program, "u_PositionScale");
+        positionOffsetHandle = GLES20.glGetUniformLocation(program, "u_PositionOffset");
+
+        if (vertexBuffer == null) {
+            vertexBuffer = bufferManager.create(GLES20.GL_ARRAY_BUFFER);
+        }
+        // Buffers from a previous context are gone, the next mesh is uploaded in full
+        uploadedMesh = null;
 
         Matrix.setIdentityM(modelMatrix, 0);
     }
 
-    public void updateCurve(String[] components, String[] bounds, float scaleFactor) {
-
-        // 3D CURVE
-
-        Argument tArgument = new Argument("t");
-        Expression xExpression = new Expression(components[0], tArgument);
-        Expression yExpression = new Expression(components[1], tArgument);
-        Expression zExpression = new Expression(components[2], tArgument);
-
+    /**
+     * Evaluates the bounds and sample count the curve's mesh is built from.
+     *
+     * @param quantized whether to pack the vertices into shorts, see {@link VertexQuantizer}.
+     */
+    public static MeshKey meshKey(String[] components, String[] bounds, float scaleFactor, boolean quantized) {
         float tMin = Utils.evaluateExpression(bounds[0]);
         float tMax = Utils.evaluateExpression(bounds[1]);
         float tRange = tMax - tMin;
@@ -80,20 +114,51 @@ public class GraphCurveRenderer {
         float increment = tRange / increments;
         int steps = (int) (tRange / increment);
 
-        float[] vertices = new float[steps * 3];
+        return new MeshKey(MeshKey.CURVE, components, new float[]{tMin, tMax}, new int[]{steps}, quantized);
+    }
+
+    /**
+     * Samples the curve into a new mesh. Doesn't touch GL, so it can run on any thread.
+     *
+     * @throws java.util.concurrent.CancellationException if {@code job} is cancelled.
+     */
+    public static Mesh createMesh(MeshKey key, MeshJob job) {
+        // 3D CURVE
+
+        // One program for all three components, so the terms they share are evaluated once
+        Evaluator evaluator = CompiledExpression.compileAll(key.expressions, "t").newEvaluator();
+
+        float tMin = key.bounds[0];
+        float tMax = key.bounds[1];
+        float tRange = tMax - tMin;
 
-        min = new float[]{Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
-        max = new float[]{Float.MIN_VALUE, Float.MIN_VALUE, Float.MIN_VALUE};
+        // Derived from the step count alone, so equal keys give equal meshes
+        int steps = key.steps[0];
+        float increment = tRange / steps;
+
+        float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
 
         float[] coord = new float[3];
 
+        // The whole t range is evaluated as one batch
+        double[] ts = new double[steps];
+        double[] xs = new double[steps];
+        double[] ys = new double[steps];
+        double[] zs = new double[steps];
         for (int i = 0; i < steps; i++) {
-            float t = tMin + i * increment;
-            tArgument.setArgumentValue(t);
+            ts[i] = tMin + i * increment;
+        }
+        job.checkpoint();
+        evaluator.evaluate(ts, null, new double[][]{xs, ys, zs}, steps);
 
-            float x = (float) (xExpression.calculate());
-            float y = (float) (yExpression.calculate());
-            float z = (float) (zExpression.calculate());
+        // Nothing can be cancelled past here, so the builder is always built
+        MeshBuilder builder = new MeshBuilder(steps, key.quantized);
+        FloatBuffer vertices = builder.vertices;
+        for (int i = 0; i < steps; i++) {
+            float x = (float) xs[i];
+            float y = (float) ys[i];
+            float z = (float) zs[i];
 
             coord[0] = y;
             coord[1] = z;
@@ -105,36 +170,54 @@ public class GraphCurveRenderer {
                     max[j] = coord[j];
             }
 
-            vertices[i * 3] = y;
-            vertices[i * 3 + 1] = z;
-            vertices[i * 3 + 2] = x;
+            vertices.put(i * 3, y);
+            vertices.put(i * 3 + 1, z);
+            vertices.put(i * 3 + 2, x);
         }
 
-        vertexCount = vertices.length / COORDS_PER_VERTEX;
+        return builder.build(min, max);
+    }
 
-        // -----
+    /**
+     * Hands over a mesh built by {@link #createMesh}, from any thread. It's uploaded at the start
+     * of the next {@link #draw}; until then the current mesh keeps drawing. The renderer takes its
+     * own reference until the upload.
+     */
+    public void setMesh(Mesh mesh) {
+        Mesh replaced = pendingMesh.getAndSet(mesh.retain());
+        if (replaced != null) {
+            replaced.release();
+        }
+    }
 
-        int[] buffers = new int[1];
-        GLES20.glGenBuffers(1, buffers, 0);
-        vertexBufferId = buffers[0];
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+    private void uploadMesh(Mesh mesh) {
+        uploadedMesh = mesh;
+        min = mesh.min;
+        max = mesh.max;
 
-        ByteBuffer bb = ByteBuffer.allocateDirect(vertices.length * BYTES_PER_FLOAT);
-        bb.order(ByteOrder.nativeOrder());
-        FloatBuffer vertexBuffer = bb.asFloatBuffer();
-        vertexBuffer
-                .put(vertices)
-                .position(0);
+        vertexCount = mesh.vertexCount();
 
-        GLES20.glBufferData(
-                GLES20.GL_ARRAY_BUFFER,
-                vertices.length * BYTES_PER_FLOAT,
-                vertexBuffer,
-                GLES20.GL_STATIC_DRAW
-        );
+        // Packed while the mesh was built, if its key asked for it
+        ShortBuffer packed = mesh.packedVertices;
+        quantized = packed != null;
+        VertexQuantizer.decoding(mesh.min, mesh.max, positionScale, positionOffset);
+        Buffer source = quantized ? packed : mesh.vertices;
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        // Every level of detail one after the other, each skipping points by its stride
+        int vertices = 0;
+        for (int stride : LevelOfDetail.STRIDES) {
+            vertices += ThickLines.vertexCount((vertexCount - 1) / stride + 1);
+        }
+        Buffer lines = thickLines.buffer(vertices, quantized);
+        int vertex = 0;
+        for (int level = 0; level < LevelOfDetail.STRIDES.length; level++) {
+            levelStarts[level] = vertex;
+            vertex = ThickLines.put(source, vertexCount, LevelOfDetail.STRIDES[level], lines, vertex);
+        }
+        levelStarts[LevelOfDetail.STRIDES.length] = vertex;
 
+        int bytes = vertex * ThickLines.COORDS_PER_VERTEX * (quantized ? BYTES_PER_SHORT : BYTES_PER_FLOAT);
+        bufferManager.upload(vertexBuffer, lines, bytes);
     }
 
     /**
@@ -156,6 +239,20 @@ public class GraphCurveRenderer {
     public void draw(float[] viewmtx, float[] projmtx, float[] colorCorrectionRgba) {
         ShaderUtil.checkGLError(TAG, "Before draw");
 
+        Mesh mesh = pendingMesh.getAndSet(null);
+        if (mesh != null) {
+            // A cache hit can hand back the mesh that's already in the buffers
+            if (mesh != uploadedMesh) {
+                uploadMesh(mesh);
+            }
+            // The GPU has its own copy now
+            mesh.release();
+        }
+        if (uploadedMesh == null) {
+            // Nothing built yet
+            return;
+        }
+
         // Build the ModelView and ModelViewProjection matrices
         // for calculating object position and light.
         Matrix.multiplyMM(modelViewMatrix, 0, viewmtx, 0, modelMatrix, 0);
@@ -166,24 +263,23 @@ public class GraphCurveRenderer {
         GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, modelViewProjectionMatrix, 0);
         GLES20.glUniform3fv(minHandle, 1, min, 0);
         GLES20.glUniform3fv(maxHandle, 1, max, 0);
+        if (quantized) {
+            GLES20.glUniform3fv(positionScaleHandle, 1, positionScale, 0);
+            GLES20.glUniform3fv(positionOffsetHandle, 1, positionOffset, 0);
+        } else {
+            GLES20.glUniform3f(positionScaleHandle, 1, 1, 1);
+            GLES20.glUniform3f(positionOffsetHandle, 0, 0, 0);
+        }
 
         //CURVE
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        GLES20.glVertexAttribPointer(
-                positionHandle,
-                COORDS_PER_VERTEX,
-                GLES20.GL_FLOAT,
-                false,
-                0,
-                0
-        );
-
-        GLES20.glLineWidth(15);
-        GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, 0, vertexCount);
-
-        GLES20.glDisableVertexAttribArray(positionHandle);
+        // Coarser levels skip points
+        int level = levelOfDetail.update(modelViewProjectionMatrix, min, max, vertexCount);
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffer.id());
+        thickLines.bind(quantized ? GLES20.GL_SHORT : GLES20.GL_FLOAT, LINE_WIDTH);
+        thickLines.draw(levelStarts[level], levelStarts[level + 1]);
+        thickLines.unbind();
 
         GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
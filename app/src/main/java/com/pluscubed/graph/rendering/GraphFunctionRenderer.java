@@ -6,26 +6,37 @@ import android.opengl.Matrix;
 
 import com.pluscubed.graph.Utils;
 import com.pluscubed.graph.arcore.rendering.ShaderUtil;
-
-import org.mariuszgromada.math.mxparser.Argument;
-import org.mariuszgromada.math.mxparser.Expression;
+import com.pluscubed.graph.math.CompiledExpression;
+import com.pluscubed.graph.math.Evaluator;
+import com.pluscubed.graph.mesh.Mesh;
+import com.pluscubed.graph.mesh.MeshBuilder;
+import com.pluscubed.graph.mesh.MeshJob;
+import com.pluscubed.graph.mesh.MeshKey;
+import com.pluscubed.graph.mesh.RowBands;
+import com.pluscubed.graph.mesh.VertexQuantizer;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class GraphFunctionRenderer {
     public static final int SCALE_FACTOR_INCREMENTS = 750;
 
     private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
     private static final int BYTES_PER_SHORT = Short.SIZE / 8;
+    // Grid line width in pixels
+    private static final float LINE_WIDTH = 15;
+    // Fewest rows bounded at once. Smaller runs that might be partly undefined are sampled, since
+    // bounding rows one by one costs more than it saves when most of each row is defined.
+    private static final int MIN_BOUNDED_ROWS = 8;
 
     private static final String TAG = GraphFunctionRenderer.class.getSimpleName();
 
     // Shader names.
-    private static final String VERTEX_SHADER_NAME = "shaders/graph.vert";
+    // Only z is uploaded per vertex, x and y come from the grid's shared lattice
+    private static final String VERTEX_SHADER_NAME = "shaders/graph_height.vert";
     private static final String FRAGMENT_SHADER_NAME = "shaders/graph.frag";
 
     private final float[] modelMatrix = new float[16];
@@ -37,18 +48,49 @@ public class GraphFunctionRenderer {
 
     private int program;
 
-    private int vertexBufferId;
-    private int indexBufferId;
+    private final GpuBufferManager bufferManager;
+    private GpuBufferManager.Buffer vertexBuffer;
+    // Normals of the uploaded mesh, empty if it has none
+    private GpuBufferManager.Buffer normalBuffer;
+    private boolean hasNormals;
 
-    private int indicesCount;
+    private final GridTopologyCache topologies;
+    // Index buffer shared with other grids of the same size
+    private GridTopologyCache.Topology topology;
+    private final LevelOfDetail levelOfDetail = new LevelOfDetail();
 
     private int mvpMatrixHandle;
-    private int positionHandle;
+    private int latticeHandle;
+    private int heightHandle;
+    private int latticeMinHandle;
+    private int latticeMaxHandle;
     private int minHandle;
     private int maxHandle;
-
-    private int xSteps;
-    private int ySteps;
+    private int heightScaleHandle;
+    private int heightOffsetHandle;
+    private int gridSizeHandle;
+    private int lineSpacingHandle;
+    private int lineWidthHandle;
+    private int normalHandle;
+    private int lightingHandle;
+
+    // Latest mesh not yet uploaded, set from the mesh thread
+    private final AtomicReference<Mesh> pendingMesh = new AtomicReference<>();
+    // Only compared by identity, its buffers may already be back in the pool
+    private Mesh uploadedMesh;
+
+    // Decoding of the uploaded vertices, if they're shorts
+    private final float[] positionScale = new float[3];
+    private final float[] positionOffset = new float[3];
+    // Whether the uploaded heights are shorts
+    private boolean quantized;
+    // Triangle strips instead of the wireframe
+    private volatile boolean filled;
+
+    public GraphFunctionRenderer(GpuBufferManager bufferManager, GridTopologyCache topologies) {
+        this.bufferManager = bufferManager;
+        this.topologies = topologies;
+    }
 
     public void createOnGlThread(Context context) throws IOException {
         final int vertexShader =
@@ -64,25 +106,42 @@ public class GraphFunctionRenderer {
 
         ShaderUtil.checkGLError(TAG, "Program creation");
 
-        positionHandle = GLES20.glGetAttribLocation(program, "a_Position");
+        latticeHandle = GLES20.glGetAttribLocation(program, "a_Lattice");
+        heightHandle = GLES20.glGetAttribLocation(program, "a_Height");
         mvpMatrixHandle = GLES20.glGetUniformLocation(program, "u_ModelViewProjection");
+        latticeMinHandle = GLES20.glGetUniformLocation(program, "u_LatticeMin");
+        latticeMaxHandle = GLES20.glGetUniformLocation(program, "u_LatticeMax");
         minHandle = GLES20.glGetUniformLocation(program, "u_Min");
         maxHandle = GLES20.glGetUniformLocation(program, "u_Max");
+        heightScaleHandle = GLES20.glGetUniformLocation(program, "u_HeightScale");
+        heightOffsetHandle = GLES20.glGetUniformLocation(program, "u_HeightOffset");
+        gridSizeHandle = GLES20.glGetUniformLocation(program, "u_GridSize");
+        lineSpacingHandle = GLES20.glGetUniformLocation(program, "u_LineSpacing");
+        lineWidthHandle = GLES20.glGetUniformLocation(program, "u_LineWidth");
+        normalHandle = GLES20.glGetAttribLocation(program, "a_Normal");
+        lightingHandle = GLES20.glGetUniformLocation(program, "u_Lighting");
 
         ShaderUtil.checkGLError(TAG, "Program parameters");
 
+        if (vertexBuffer == null) {
+            vertexBuffer = bufferManager.create(GLES20.GL_ARRAY_BUFFER);
+            normalBuffer = bufferManager.create(GLES20.GL_ARRAY_BUFFER);
+        }
+        // Buffers from a previous context are gone, the next mesh is uploaded in full
+        uploadedMesh = null;
+        topology = null;
+
         Matrix.setIdentityM(modelMatrix, 0);
     }
 
-    public void updateSurface(String zString, String[] xBounds, String[] yBounds, float scaleFactor) {
-        ShaderUtil.checkGLError(TAG, "before update");
-
-        // 3D SURFACE
-
-        Argument xArgument = new Argument("x");
-        Argument yArgument = new Argument("y");
-        Expression zExpression = new Expression(zString, xArgument, yArgument);
-
+    /**
+     * Evaluates the bounds and grid size the graph's mesh is built from.
+     *
+     * @param normals   whether to build normals, to light a filled graph.
+     * @param quantized whether to pack the heights into shorts, see {@link VertexQuantizer}.
+     */
+    public static MeshKey meshKey(String zString, String[] xBounds, String[] yBounds, float scaleFactor,
+                                  boolean normals, boolean quantized) {
         float minX = Utils.evaluateExpression(xBounds[0]);
         float maxX = Utils.evaluateExpression(xBounds[1]);
         float xRange = maxX - minX;
@@ -95,109 +154,205 @@ public class GraphFunctionRenderer {
         float increments = scaleFactor * SCALE_FACTOR_INCREMENTS;
         float increment = maxRange / increments;
 
-        xSteps = (int) (xRange / increment) + 1;
-        ySteps = (int) (yRange / increment) + 1;
+        int xSteps = (int) (xRange / increment) + 1;
+        int ySteps = (int) (yRange / increment) + 1;
 
-        // Ordered x, then y
-        float[] vertices = new float[xSteps * ySteps * 3];
+        return new MeshKey(MeshKey.FUNCTION, new String[]{zString},
+                new float[]{minX, maxX, minY, maxY}, new int[]{xSteps, ySteps}, normals, quantized);
+    }
 
-        float minZ = Float.MAX_VALUE;
-        float maxZ = Float.MIN_VALUE;
-        for (int yi = 0; yi < ySteps; yi++) {
-            for (int xi = 0; xi < xSteps; xi++) {
-                float x = minX + (float) xi / (xSteps - 1) * xRange;
-                float y = minY + (float) yi / (ySteps - 1) * yRange;
+    /**
+     * Samples the graph into a new mesh. Doesn't touch GL, so it can run on any thread.
+     *
+     * @throws java.util.concurrent.CancellationException if {@code job} is cancelled.
+     */
+    public static Mesh createMesh(MeshKey key, MeshJob job) {
+        // 3D SURFACE
 
-                xArgument.setArgumentValue(x);
-                yArgument.setArgumentValue(y);
+        CompiledExpression zExpression = CompiledExpression.compile(key.expressions[0], "x", "y");
 
-                float z = (float) (zExpression.calculate());
+        float minX = key.bounds[0];
+        float maxX = key.bounds[1];
+        float xRange = maxX - minX;
 
-                vertices[(yi * xSteps + xi) * 3] = y;
-                vertices[(yi * xSteps + xi) * 3 + 1] = z;
-                vertices[(yi * xSteps + xi) * 3 + 2] = x;
+        float minY = key.bounds[2];
+        float maxY = key.bounds[3];
+        float yRange = maxY - minY;
 
-                if (z < minZ)
-                    minZ = z;
-                if (z > maxZ)
-                    maxZ = z;
+        final int xSteps = key.steps[0];
+        final int ySteps = key.steps[1];
+
+        // Sampled straight into pooled native buffers, returned to the pool if sampling fails
+        try (MeshBuilder builder = new MeshBuilder(xSteps * ySteps, 1, key.normals, key.quantized)) {
+            // Heights only, ordered x, then y
+            final FloatBuffer vertices = builder.vertices;
+
+            // Rows are split into bands sampled in parallel, each with its own evaluator
+            int bands = RowBands.count(ySteps);
+            final float[] bandMinZ = new float[bands];
+            final float[] bandMaxZ = new float[bands];
+            RowBands.run(ySteps, bands, (band, fromRow, toRow) -> {
+                Evaluator zEvaluator = zExpression.newEvaluator();
+
+                // Each row is evaluated as one batch: x varies along the row, y is fixed
+                double[] xs = new double[xSteps];
+                double[] ys = new double[xSteps];
+                double[] zs = new double[xSteps];
+                // Slopes along x and y, for the normals
+                double[] dzdx = key.normals ? new double[xSteps] : null;
+                double[] dzdy = key.normals ? new double[xSteps] : null;
+                for (int xi = 0; xi < xSteps; xi++) {
+                    xs[xi] = minX + (float) xi / (xSteps - 1) * xRange;
+                }
+                double[] rowYs = new double[toRow - fromRow];
+                for (int yi = fromRow; yi < toRow; yi++) {
+                    rowYs[yi - fromRow] = minY + (float) yi / (ySteps - 1) * yRange;
+                }
+                // Rows that can be skipped, found by bounding the band before it's sampled
+                boolean[] undefinedRows = new boolean[rowYs.length];
+                markUndefinedRows(zEvaluator, Math.min(xs[0], xs[xSteps - 1]), Math.max(xs[0], xs[xSteps - 1]),
+                        rowYs, 0, rowYs.length, undefinedRows, new double[1], new double[1], new int[1]);
+
+                float minZ = Float.MAX_VALUE;
+                float maxZ = -Float.MAX_VALUE;
+                for (int yi = fromRow; yi < toRow; yi++) {
+                    job.checkpoint();
+                    float y = (float) rowYs[yi - fromRow];
+                    if (undefinedRows[yi - fromRow]) {
+                        // Provably outside the domain, e.g. sqrt(-1 - x^2), so there's nothing
+                        // to sample
+                        Arrays.fill(zs, Double.NaN);
+                        if (key.normals) {
+                            for (int xi = 0; xi < xSteps; xi++) {
+                                builder.putNormal(yi * xSteps + xi, 0, 1, 0);
+                            }
+                        }
+                    } else if (key.normals) {
+                        Arrays.fill(ys, y);
+                        zEvaluator.evaluateGradient(xs, ys, zs, dzdx, dzdy, xSteps);
+                        for (int xi = 0; xi < xSteps; xi++) {
+                            // Normal of z - f(x, y) = 0
+                            builder.putNormal(yi * xSteps + xi, -dzdy[xi], 1, -dzdx[xi]);
+                        }
+                    } else {
+                        // Parts of the expression in x or y alone aren't redone for every point
+                        zEvaluator.evaluateRow(xs, y, zs, xSteps);
+                    }
+
+                    for (int xi = 0; xi < xSteps; xi++) {
+                        float z = (float) zs[xi];
+
+                        vertices.put(yi * xSteps + xi, z);
+
+                        if (z < minZ)
+                            minZ = z;
+                        if (z > maxZ)
+                            maxZ = z;
+                    }
+                }
+                bandMinZ[band] = minZ;
+                bandMaxZ[band] = maxZ;
+            });
+
+            float minZ = Float.MAX_VALUE;
+            float maxZ = -Float.MAX_VALUE;
+            // Merged in band order with the same comparisons, so the result matches a single pass
+            for (int band = 0; band < bands; band++) {
+                if (bandMinZ[band] < minZ)
+                    minZ = bandMinZ[band];
+                if (bandMaxZ[band] > maxZ)
+                    maxZ = bandMaxZ[band];
             }
-        }
-
-        min = new float[]{minY, minZ, minX};
-        max = new float[]{maxY, maxZ, maxX};
-
-        int[] buffers = new int[2];
-        GLES20.glGenBuffers(2, buffers, 0);
-
-        // VERTICES
 
-        vertexBufferId = buffers[0];
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+            float[] min = {minY, minZ, minX};
+            float[] max = {maxY, maxZ, maxX};
 
-        ByteBuffer bb = ByteBuffer.allocateDirect(vertices.length * BYTES_PER_FLOAT);
-        bb.order(ByteOrder.nativeOrder());
-        FloatBuffer vertexBuffer = bb.asFloatBuffer();
-        vertexBuffer
-                .put(vertices)
-                .position(0);
-
-        GLES20.glBufferData(
-                GLES20.GL_ARRAY_BUFFER,
-                vertices.length * BYTES_PER_FLOAT,
-                vertexBuffer,
-                GLES20.GL_STATIC_DRAW
-        );
+            return builder.build(xSteps, ySteps, min, max);
+        }
+    }
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    /**
+     * Marks the rows from {@code from} to {@code to} that are provably undefined over
+     * {@code xFrom} to {@code xTo}. The rows are bounded together, and runs that might be partly
+     * undefined are halved down to {@link #MIN_BOUNDED_ROWS}, so a graph defined everywhere costs
+     * one bound per band rather than one per row.
+     */
+    private static void markUndefinedRows(Evaluator evaluator, double xFrom, double xTo, double[] ys,
+                                          int from, int to, boolean[] undefined,
+                                          double[] min, double[] max, int[] defined) {
+        double yFrom = Math.min(ys[from], ys[to - 1]);
+        double yTo = Math.max(ys[from], ys[to - 1]);
+        evaluator.evaluateBounds(xFrom, xTo, yFrom, yTo, min, max, defined);
+        if (defined[0] == Evaluator.UNDEFINED) {
+            Arrays.fill(undefined, from, to, true);
+        } else if (defined[0] == Evaluator.MAYBE_UNDEFINED && to - from > MIN_BOUNDED_ROWS) {
+            int middle = (from + to) >>> 1;
+            markUndefinedRows(evaluator, xFrom, xTo, ys, from, middle, undefined, min, max, defined);
+            markUndefinedRows(evaluator, xFrom, xTo, ys, middle, to, undefined, min, max, defined);
+        }
+    }
 
-        //Index
+    /**
+     * Hands over a mesh built by {@link #createMesh}, from any thread. It's uploaded at the start
+     * of the next {@link #draw}; until then the current mesh keeps drawing. The renderer takes its
+     * own reference until the upload.
+     */
+    public void setMesh(Mesh mesh) {
+        Mesh replaced = pendingMesh.getAndSet(mesh.retain());
+        if (replaced != null) {
+            replaced.release();
+        }
+    }
 
-        indexBufferId = buffers[1];
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+    /**
+     * Draws the graph as a filled surface instead of a wireframe, from the next frame.
+     */
+    public void setFilled(boolean filled) {
+        this.filled = filled;
+    }
 
-        //2 indices per segment * number of segments * lines
-        short[] indices = new short[2 * (xSteps - 1) * ySteps + 2 * (ySteps - 1) * xSteps];
+    private void uploadMesh(Mesh mesh, boolean filled) {
+        uploadedMesh = mesh;
+        min = mesh.min;
+        max = mesh.max;
 
-        int i = 0;
+        // VERTICES
 
-        // Horizontal grid lines (y constant)
-        for (int yi = 0; yi < ySteps; yi++) {
-            for (int x = 0; x < xSteps - 1; x++) {
-                //start vertex index
-                indices[i++] = (short) (yi * xSteps + x);
-                //end vertex index
-                indices[i++] = (short) (yi * xSteps + x + 1);
-            }
+        // Packed while the mesh was built, if its key asked for it
+        ShortBuffer packed = mesh.packedVertices;
+        quantized = packed != null;
+        VertexQuantizer.decoding(mesh.min, mesh.max, positionScale, positionOffset);
+        if (quantized) {
+            bufferManager.upload(vertexBuffer, packed, packed.limit() * BYTES_PER_SHORT);
+        } else {
+            bufferManager.upload(vertexBuffer, mesh.vertices, mesh.vertices.limit() * BYTES_PER_FLOAT);
         }
 
-        // Vertical grid lines (x constant)
-        for (int xi = 0; xi < xSteps; xi++) {
-            for (int yi = 0; yi < ySteps - 1; yi++) {
-                indices[i++] = (short) (yi * xSteps + xi);
-                indices[i++] = (short) ((yi + 1) * xSteps + xi);
-            }
+        // Only built for filled graphs, see meshKey
+        hasNormals = mesh.normals != null;
+        if (hasNormals) {
+            bufferManager.upload(normalBuffer, mesh.normals, mesh.normals.limit() * BYTES_PER_FLOAT);
         }
 
-        indicesCount = indices.length;
-
-        bb = ByteBuffer.allocateDirect(indices.length * BYTES_PER_SHORT);
-        bb.order(ByteOrder.nativeOrder());
-        ShortBuffer indexBuffer = bb.asShortBuffer();
-        indexBuffer
-                .put(indices)
-                .position(0);
-
-        GLES20.glBufferData(
-                GLES20.GL_ELEMENT_ARRAY_BUFFER,
-                indices.length * BYTES_PER_SHORT,
-                indexBuffer,
-                GLES20.GL_STATIC_DRAW
-        );
+        //Index
 
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        updateTopology(mesh.columns, mesh.rows, filled);
+    }
 
-        ShaderUtil.checkGLError(TAG, "after update");
+    /**
+     * Acquires the indices for the grid size and drawing mode, if they changed. The wireframe is
+     * drawn over triangles too, by the fragment shader, unless it has no derivatives.
+     */
+    private void updateTopology(int columns, int rows, boolean filled) {
+        boolean strips = filled || GlCapabilities.hasStandardDerivatives();
+        if (topology == null || topology.columns != columns || topology.rows != rows
+                || topology.strips != strips) {
+            GridTopologyCache.Topology previous = topology;
+            topology = topologies.acquire(columns, rows, strips);
+            if (previous != null) {
+                topologies.release(previous);
+            }
+        }
     }
 
     /**
@@ -219,6 +374,23 @@ public class GraphFunctionRenderer {
     public void draw(float[] viewmtx, float[] projmtx, float[] colorCorrectionRgba) {
         ShaderUtil.checkGLError(TAG, "Before draw");
 
+        boolean filled = this.filled;
+        Mesh mesh = pendingMesh.getAndSet(null);
+        if (mesh != null) {
+            // A cache hit can hand back the mesh that's already in the buffers
+            if (mesh != uploadedMesh) {
+                uploadMesh(mesh, filled);
+            }
+            // The GPU has its own copy now
+            mesh.release();
+        }
+        if (uploadedMesh == null) {
+            // Nothing built yet
+            return;
+        }
+        // The mode can change between meshes
+        updateTopology(topology.columns, topology.rows, filled);
+
         // Build the ModelView and ModelViewProjection matrices
         // for calculating object position and light.
         Matrix.multiplyMM(modelViewMatrix, 0, viewmtx, 0, modelMatrix, 0);
@@ -229,26 +401,79 @@ public class GraphFunctionRenderer {
         GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, modelViewProjectionMatrix, 0);
         GLES20.glUniform3fv(minHandle, 1, min, 0);
         GLES20.glUniform3fv(maxHandle, 1, max, 0);
+        // min and max are (y, z, x)
+        GLES20.glUniform2f(latticeMinHandle, min[2], min[0]);
+        GLES20.glUniform2f(latticeMaxHandle, max[2], max[0]);
+        // Heights are z, component 1
+        GLES20.glUniform1f(heightScaleHandle, quantized ? positionScale[1] : 1);
+        GLES20.glUniform1f(heightOffsetHandle, quantized ? positionOffset[1] : 0);
+        // Shaded only when filled, the wireframe reads better flat
+        boolean lit = filled && hasNormals;
+        GLES20.glUniform1f(lightingHandle, lit ? 1 : 0);
 
         //SURFACE
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        GLES20.glVertexAttribPointer(
-                positionHandle,
-                3,
-                GLES20.GL_FLOAT,
-                false,
-                0,
-                0
-        );
+        int latticeBuffer = topologies.lattice(topology).id();
+        GLES20.glEnableVertexAttribArray(latticeHandle);
+        GLES20.glEnableVertexAttribArray(heightHandle);
+        if (lit) {
+            GLES20.glEnableVertexAttribArray(normalHandle);
+        }
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, topology.buffer.id());
 
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+        if (!topology.strips) {
+            GLES20.glLineWidth(LINE_WIDTH);
+        }
+        // A coarser grid when the graph is small on screen
+        int level = levelOfDetail.update(modelViewProjectionMatrix, min, max,
+                Math.max(topology.columns, topology.rows));
+        // Wireframe over the triangles, in the fragment shader
+        GLES20.glUniform1f(lineWidthHandle, topology.strips && !filled ? LINE_WIDTH : 0);
+        GLES20.glUniform2f(gridSizeHandle, topology.columns - 1, topology.rows - 1);
+        GLES20.glUniform1f(lineSpacingHandle, LevelOfDetail.STRIDES[level]);
+        int[] ranges = topology.ranges[level];
+        for (int block = 0; block < ranges.length / 3; ) {
+            // Blocks from the same tile are drawn together
+            int first = block * 3;
+            int count = 0;
+            while (block < ranges.length / 3 && ranges[block * 3] == ranges[first]) {
+                count += ranges[block * 3 + 2];
+                block++;
+            }
 
-        GLES20.glLineWidth(15);
-        GLES20.glDrawElements(GLES20.GL_LINES, indicesCount, GLES20.GL_UNSIGNED_SHORT, 0);
+            // Indices are relative to the tile's first vertex
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, latticeBuffer);
+            GLES20.glVertexAttribPointer(
+                    latticeHandle,
+                    2,
+                    GLES20.GL_FLOAT,
+                    false,
+                    0,
+                    ranges[first] * 2 * BYTES_PER_FLOAT
+            );
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffer.id());
+            GLES20.glVertexAttribPointer(
+                    heightHandle,
+                    1,
+                    quantized ? GLES20.GL_SHORT : GLES20.GL_FLOAT,
+                    false,
+                    0,
+                    ranges[first] * (quantized ? BYTES_PER_SHORT : BYTES_PER_FLOAT)
+            );
+            if (lit) {
+                GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, normalBuffer.id());
+                GLES20.glVertexAttribPointer(normalHandle, 3, GLES20.GL_FLOAT, false, 0,
+                        ranges[first] * 3 * BYTES_PER_FLOAT);
+            }
+            GLES20.glDrawElements(topology.mode(), count, topology.indexType(),
+                    ranges[first + 1] * topology.indexSize);
+        }
 
-        GLES20.glDisableVertexAttribArray(positionHandle);
+        GLES20.glDisableVertexAttribArray(latticeHandle);
+        GLES20.glDisableVertexAttribArray(heightHandle);
+        if (lit) {
+            GLES20.glDisableVertexAttribArray(normalHandle);
+        }
         GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
         GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
 
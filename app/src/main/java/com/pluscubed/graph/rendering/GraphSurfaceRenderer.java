@@ -6,15 +6,21 @@ import android.opengl.Matrix;
 
 import com.pluscubed.graph.Utils;
 import com.pluscubed.graph.arcore.rendering.ShaderUtil;
-
-import org.mariuszgromada.math.mxparser.Argument;
-import org.mariuszgromada.math.mxparser.Expression;
+import com.pluscubed.graph.math.CompiledExpression;
+import com.pluscubed.graph.math.Evaluator;
+import com.pluscubed.graph.mesh.BlockBounds;
+import com.pluscubed.graph.mesh.Mesh;
+import com.pluscubed.graph.mesh.MeshBuilder;
+import com.pluscubed.graph.mesh.MeshJob;
+import com.pluscubed.graph.mesh.MeshKey;
+import com.pluscubed.graph.mesh.RowBands;
+import com.pluscubed.graph.mesh.VertexQuantizer;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class GraphSurfaceRenderer {
     public static final int SCALE_FACTOR_INCREMENTS = 1000;
@@ -22,6 +28,8 @@ public class GraphSurfaceRenderer {
     private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
     private static final int BYTES_PER_SHORT = Short.SIZE / 8;
     private static final int COORDS_PER_VERTEX = 3;
+    // Grid line width in pixels
+    private static final float LINE_WIDTH = 15;
 
     private static final String TAG = GraphSurfaceRenderer.class.getSimpleName();
 
@@ -38,15 +46,48 @@ public class GraphSurfaceRenderer {
     private float[] min;
     private float[] max;
 
-    private int vertexBufferId;
-    private int indexBufferId;
+    private final GpuBufferManager bufferManager;
+    private GpuBufferManager.Buffer vertexBuffer;
+    // Normals of the uploaded mesh, empty if it has none
+    private GpuBufferManager.Buffer normalBuffer;
+    private boolean hasNormals;
 
-    private int indicesCount;
+    private final GridTopologyCache topologies;
+    // Index buffer shared with other grids of the same size
+    private GridTopologyCache.Topology topology;
+    private final LevelOfDetail levelOfDetail = new LevelOfDetail();
+    private final TileCuller tileCuller = new TileCuller();
 
     private int positionHandle;
+    private int latticeHandle;
     private int mvpMatrixHandle;
     private int minHandle;
     private int maxHandle;
+    private int positionScaleHandle;
+    private int positionOffsetHandle;
+    private int gridSizeHandle;
+    private int lineSpacingHandle;
+    private int lineWidthHandle;
+    private int normalHandle;
+    private int lightingHandle;
+
+    // Latest mesh not yet uploaded, set from the mesh thread
+    private final AtomicReference<Mesh> pendingMesh = new AtomicReference<>();
+    // Only compared by identity, its buffers may already be back in the pool
+    private Mesh uploadedMesh;
+
+    // Decoding of the uploaded vertices, if they're shorts
+    private final float[] positionScale = new float[3];
+    private final float[] positionOffset = new float[3];
+    // Whether the uploaded vertices are shorts
+    private boolean quantized;
+    // Triangle strips instead of the wireframe
+    private volatile boolean filled;
+
+    public GraphSurfaceRenderer(GpuBufferManager bufferManager, GridTopologyCache topologies) {
+        this.bufferManager = bufferManager;
+        this.topologies = topologies;
+    }
 
     public void createOnGlThread(Context context) throws IOException {
         final int vertexShader =
@@ -60,29 +101,42 @@ public class GraphSurfaceRenderer {
         GLES20.glLinkProgram(program);
 
         positionHandle = GLES20.glGetAttribLocation(program, "a_Position");
+        latticeHandle = GLES20.glGetAttribLocation(program, "a_Lattice");
         mvpMatrixHandle = GLES20.glGetUniformLocation(program, "u_ModelViewProjection");
         minHandle = GLES20.glGetUniformLocation(program, "u_Min");
         maxHandle = GLES20.glGetUniformLocation(program, "u_Max");
+        positionScaleHandle = GLES20.glGetUniformLocation(program, "u_PositionScale");
+        positionOffsetHandle = GLES20.glGetUniformLocation(program, "u_PositionOffset");
+        gridSizeHandle = GLES20.glGetUniformLocation(program, "u_GridSize");
+        lineSpacingHandle = GLES20.glGetUniformLocation(program, "u_LineSpacing");
+        lineWidthHandle = GLES20.glGetUniformLocation(program, "u_LineWidth");
+        normalHandle = GLES20.glGetAttribLocation(program, "a_Normal");
+        lightingHandle = GLES20.glGetUniformLocation(program, "u_Lighting");
+
+        if (vertexBuffer == null) {
+            vertexBuffer = bufferManager.create(GLES20.GL_ARRAY_BUFFER);
+            normalBuffer = bufferManager.create(GLES20.GL_ARRAY_BUFFER);
+        }
+        // Buffers from a previous context are gone, the next mesh is uploaded in full
+        uploadedMesh = null;
+        topology = null;
 
         Matrix.setIdentityM(modelMatrix, 0);
     }
 
-    public void updateSurface(String[] components, String[] tBounds, String[] uBounds, float scaleFactor) {
-        // 3D SURFACE
-
-        Argument tArgument = new Argument("t");
-        Argument uArgument = new Argument("u");
-        Expression xExpression = new Expression(components[0], tArgument, uArgument);
-        Expression yExpression = new Expression(components[1], tArgument, uArgument);
-        Expression zExpression = new Expression(components[2], tArgument, uArgument);
-
+    /**
+     * Evaluates the bounds and grid size the surface's mesh is built from.
+     *
+     * @param normals   whether to build normals, to light a filled surface.
+     * @param quantized whether to pack the vertices into shorts, see {@link VertexQuantizer}.
+     */
+    public static MeshKey meshKey(String[] components, String[] tBounds, String[] uBounds, float scaleFactor,
+                                  boolean normals, boolean quantized) {
         float tMin = Utils.evaluateExpression(tBounds[0]);
         float tMax = Utils.evaluateExpression(tBounds[1]);
-        float tRange = tMax - tMin;
 
         float uMin = Utils.evaluateExpression(uBounds[0]);
         float uMax = Utils.evaluateExpression(uBounds[1]);
-        float uRange = uMax - uMin;
 
         float increments = scaleFactor * SCALE_FACTOR_INCREMENTS;
 
@@ -90,114 +144,219 @@ public class GraphSurfaceRenderer {
         int tSteps = (int) increments + 1;
         int uSteps = (int) increments + 1;
 
-        // Ordered t, then u
-        float[] vertices = new float[tSteps * uSteps * 3];
+        return new MeshKey(MeshKey.SURFACE, components,
+                new float[]{tMin, tMax, uMin, uMax}, new int[]{tSteps, uSteps}, normals, quantized);
+    }
 
-        min = new float[]{Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
-        max = new float[]{Float.MIN_VALUE, Float.MIN_VALUE, Float.MIN_VALUE};
+    /**
+     * Samples the surface into a new mesh. Doesn't touch GL, so it can run on any thread.
+     *
+     * @throws java.util.concurrent.CancellationException if {@code job} is cancelled.
+     */
+    public static Mesh createMesh(MeshKey key, MeshJob job) {
+        // 3D SURFACE
 
-        float[] coord = new float[3];
+        // One program for all three components, so the terms they share are evaluated once
+        CompiledExpression components = CompiledExpression.compileAll(key.expressions, "t", "u");
 
-        for (int ui = 0; ui < uSteps; ui++) {
-            for (int ti = 0; ti < tSteps; ti++) {
-                float t = tMin + (float) ti / (tSteps - 1) * tRange;
-                float u = uMin + (float) ui / (uSteps - 1) * uRange;
+        float tMin = key.bounds[0];
+        float tMax = key.bounds[1];
+        float tRange = tMax - tMin;
 
-                tArgument.setArgumentValue(t);
-                uArgument.setArgumentValue(u);
+        float uMin = key.bounds[2];
+        float uMax = key.bounds[3];
+        float uRange = uMax - uMin;
 
-                float x = (float) (xExpression.calculate());
-                float y = (float) (yExpression.calculate());
-                float z = (float) (zExpression.calculate());
+        int tSteps = key.steps[0];
+        int uSteps = key.steps[1];
+
+        // Sampled straight into pooled native buffers, returned to the pool if sampling fails
+        try (MeshBuilder builder = new MeshBuilder(tSteps * uSteps, COORDS_PER_VERTEX, key.normals,
+                key.quantized)) {
+            // Ordered t, then u
+            FloatBuffer vertices = builder.vertices;
+
+            // Rows are split into bands sampled in parallel, each with its own evaluators
+            int bands = RowBands.count(uSteps);
+            float[][] bandMin = new float[bands][];
+            float[][] bandMax = new float[bands][];
+            float[][] bandBlockBounds = new float[bands][];
+            RowBands.run(uSteps, bands, (band, fromRow, toRow) -> {
+                Evaluator evaluator = components.newEvaluator();
+
+                float[] bandMinCoord = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+                float[] bandMaxCoord = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+                // Boxes of the blocks this band's rows are in, for culling
+                float[] blockBounds = BlockBounds.empty(tSteps, uSteps);
+
+                float[] coord = new float[3];
+
+                // Each row is evaluated as one batch: t varies along the row, u is fixed
+                double[] ts = new double[tSteps];
+                double[] us = new double[tSteps];
+                double[] xs = new double[tSteps];
+                double[] ys = new double[tSteps];
+                double[] zs = new double[tSteps];
+                double[][] coords = {xs, ys, zs};
+                // Tangents along t and u of each component, for the normals
+                double[][] dt = key.normals ? new double[3][tSteps] : null;
+                double[][] du = key.normals ? new double[3][tSteps] : null;
+                for (int ti = 0; ti < tSteps; ti++) {
+                    ts[ti] = tMin + (float) ti / (tSteps - 1) * tRange;
+                }
 
-                coord[0] = y;
-                coord[1] = z;
-                coord[2] = x;
+                for (int ui = fromRow; ui < toRow; ui++) {
+                    job.checkpoint();
+                    float u = uMin + (float) ui / (uSteps - 1) * uRange;
+                    if (key.normals) {
+                        Arrays.fill(us, u);
+                        evaluator.evaluateGradient(ts, us, coords, dt, du, tSteps);
+                        putNormals(builder, ui * tSteps, dt, du, tSteps);
+                    } else {
+                        // Parts of the components in t or u alone aren't redone for every point
+                        evaluator.evaluateRow(ts, u, coords, tSteps);
+                    }
+
+                    for (int ti = 0; ti < tSteps; ti++) {
+                        float x = (float) xs[ti];
+                        float y = (float) ys[ti];
+                        float z = (float) zs[ti];
+
+                        coord[0] = y;
+                        coord[1] = z;
+                        coord[2] = x;
+                        for (int j = 0; j < 3; j++) {
+                            if (coord[j] < bandMinCoord[j])
+                                bandMinCoord[j] = coord[j];
+                            if (coord[j] > bandMaxCoord[j])
+                                bandMaxCoord[j] = coord[j];
+                        }
+
+                        vertices.put((ui * tSteps + ti) * 3, y);
+                        vertices.put((ui * tSteps + ti) * 3 + 1, z);
+                        vertices.put((ui * tSteps + ti) * 3 + 2, x);
+                    }
+                    BlockBounds.addRow(blockBounds, vertices, tSteps, uSteps, ui);
+                }
+                bandMin[band] = bandMinCoord;
+                bandMax[band] = bandMaxCoord;
+                bandBlockBounds[band] = blockBounds;
+            });
+
+            float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+            float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+            // Merged in band order with the same comparisons, so the result matches a single pass
+            for (int band = 0; band < bands; band++) {
                 for (int j = 0; j < 3; j++) {
-                    if (coord[j] < min[j])
-                        min[j] = coord[j];
-                    if (coord[j] > max[j])
-                        max[j] = coord[j];
+                    if (bandMin[band][j] < min[j])
+                        min[j] = bandMin[band][j];
+                    if (bandMax[band][j] > max[j])
+                        max[j] = bandMax[band][j];
                 }
-
-                vertices[(ui * tSteps + ti) * 3] = y;
-                vertices[(ui * tSteps + ti) * 3 + 1] = z;
-                vertices[(ui * tSteps + ti) * 3 + 2] = x;
             }
-        }
-
-        int[] buffers = new int[2];
-        GLES20.glGenBuffers(2, buffers, 0);
-
-        // -----
 
-        vertexBufferId = buffers[0];
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-
-        ByteBuffer bb = ByteBuffer.allocateDirect(vertices.length * BYTES_PER_FLOAT);
-        bb.order(ByteOrder.nativeOrder());
-        FloatBuffer vertexBuffer = bb.asFloatBuffer();
-        vertexBuffer
-                .put(vertices)
-                .position(0);
+            float[] blockBounds = bandBlockBounds[0];
+            for (int band = 1; band < bands; band++) {
+                BlockBounds.merge(blockBounds, bandBlockBounds[band]);
+            }
 
-        GLES20.glBufferData(
-                GLES20.GL_ARRAY_BUFFER,
-                vertices.length * BYTES_PER_FLOAT,
-                vertexBuffer,
-                GLES20.GL_STATIC_DRAW
-        );
+            return builder.build(tSteps, uSteps, min, max, blockBounds);
+        }
+    }
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    /**
+     * Writes the normals of a row from its tangents, the cross product of the one along t with
+     * the one along u.
+     */
+    private static void putNormals(MeshBuilder builder, int firstVertex, double[][] dt, double[][] du,
+                                   int count) {
+        double[] xt = dt[0], xu = du[0];
+        double[] yt = dt[1], yu = du[1];
+        double[] zt = dt[2], zu = du[2];
+        for (int i = 0; i < count; i++) {
+            double nx = yt[i] * zu[i] - zt[i] * yu[i];
+            double ny = zt[i] * xu[i] - xt[i] * zu[i];
+            double nz = xt[i] * yu[i] - yt[i] * xu[i];
+            builder.putNormal(firstVertex + i, ny, nz, nx);
+        }
+    }
 
-        //Index
+    /**
+     * Hands over a mesh built by {@link #createMesh}, from any thread. It's uploaded at the start
+     * of the next {@link #draw}; until then the current mesh keeps drawing. The renderer takes its
+     * own reference until the upload.
+     */
+    public void setMesh(Mesh mesh) {
+        Mesh replaced = pendingMesh.getAndSet(mesh.retain());
+        if (replaced != null) {
+            replaced.release();
+        }
+    }
 
-        indexBufferId = buffers[1];
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+    /**
+     * Blocks of the surface tested against the view in the last frame.
+     */
+    public int tilesTested() {
+        return tileCuller.tilesTested();
+    }
 
-        //2 indices per segment * number of segments * lines
-        short[] indices = new short[2 * (tSteps - 1) * uSteps + 2 * (uSteps - 1) * tSteps];
+    /**
+     * Blocks of the surface drawn in the last frame.
+     */
+    public int tilesDrawn() {
+        return tileCuller.tilesDrawn();
+    }
 
-        int i = 0;
+    /**
+     * Draws the graph as a filled surface instead of a wireframe, from the next frame.
+     */
+    public void setFilled(boolean filled) {
+        this.filled = filled;
+    }
 
-        // Horizontal grid lines (y constant)
-        for (int ui = 0; ui < uSteps; ui++) {
-            for (int t = 0; t < tSteps - 1; t++) {
-                //start vertex index
-                indices[i++] = (short) (ui * tSteps + t);
-                //end vertex index
-                indices[i++] = (short) (ui * tSteps + t + 1);
-            }
+    private void uploadMesh(Mesh mesh, boolean filled) {
+        uploadedMesh = mesh;
+        min = mesh.min;
+        max = mesh.max;
+
+        // VERTICES
+
+        // Packed while the mesh was built, if its key asked for it
+        ShortBuffer packed = mesh.packedVertices;
+        quantized = packed != null;
+        VertexQuantizer.decoding(mesh.min, mesh.max, positionScale, positionOffset);
+        if (quantized) {
+            bufferManager.upload(vertexBuffer, packed, packed.limit() * BYTES_PER_SHORT);
+        } else {
+            bufferManager.upload(vertexBuffer, mesh.vertices, mesh.vertices.limit() * BYTES_PER_FLOAT);
         }
 
-        // Vertical grid lines (x constant)
-        for (int ti = 0; ti < tSteps; ti++) {
-            for (int ui = 0; ui < uSteps - 1; ui++) {
-                indices[i++] = (short) (ui * tSteps + ti);
-                indices[i++] = (short) ((ui + 1) * tSteps + ti);
-            }
+        // Only built for filled graphs, see meshKey
+        hasNormals = mesh.normals != null;
+        if (hasNormals) {
+            bufferManager.upload(normalBuffer, mesh.normals, mesh.normals.limit() * BYTES_PER_FLOAT);
         }
 
-        indicesCount = indices.length;
-
-        bb = ByteBuffer.allocateDirect(indices.length * BYTES_PER_SHORT);
-        bb.order(ByteOrder.nativeOrder());
-        ShortBuffer indexBuffer = bb.asShortBuffer();
-        indexBuffer
-                .put(indices)
-                .position(0);
-
-        GLES20.glBufferData(
-                GLES20.GL_ELEMENT_ARRAY_BUFFER,
-                indices.length * BYTES_PER_SHORT,
-                indexBuffer,
-                GLES20.GL_STATIC_DRAW
-        );
-
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        //Index
 
-        ShaderUtil.checkGLError(TAG, "after update");
+        updateTopology(mesh.columns, mesh.rows, filled);
+        tileCuller.setBounds(mesh.blockBounds, mesh.columns, mesh.rows, topology.blocks);
+    }
 
+    /**
+     * Acquires the indices for the grid size and drawing mode, if they changed. The wireframe is
+     * drawn over triangles too, by the fragment shader, unless it has no derivatives.
+     */
+    private void updateTopology(int columns, int rows, boolean filled) {
+        boolean strips = filled || GlCapabilities.hasStandardDerivatives();
+        if (topology == null || topology.columns != columns || topology.rows != rows
+                || topology.strips != strips) {
+            GridTopologyCache.Topology previous = topology;
+            topology = topologies.acquire(columns, rows, strips);
+            if (previous != null) {
+                topologies.release(previous);
+            }
+        }
     }
 
     /**
@@ -219,6 +378,23 @@ public class GraphSurfaceRenderer {
     public void draw(float[] viewmtx, float[] projmtx, float[] colorCorrectionRgba) {
         ShaderUtil.checkGLError(TAG, "Before draw");
 
+        boolean filled = this.filled;
+        Mesh mesh = pendingMesh.getAndSet(null);
+        if (mesh != null) {
+            // A cache hit can hand back the mesh that's already in the buffers
+            if (mesh != uploadedMesh) {
+                uploadMesh(mesh, filled);
+            }
+            // The GPU has its own copy now
+            mesh.release();
+        }
+        if (uploadedMesh == null) {
+            // Nothing built yet
+            return;
+        }
+        // The mode can change between meshes
+        updateTopology(topology.columns, topology.rows, filled);
+
         // Build the ModelView and ModelViewProjection matrices
         // for calculating object position and light.
         Matrix.multiplyMM(modelViewMatrix, 0, viewmtx, 0, modelMatrix, 0);
@@ -229,26 +405,96 @@ public class GraphSurfaceRenderer {
         GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, modelViewProjectionMatrix, 0);
         GLES20.glUniform3fv(minHandle, 1, min, 0);
         GLES20.glUniform3fv(maxHandle, 1, max, 0);
+        if (quantized) {
+            GLES20.glUniform3fv(positionScaleHandle, 1, positionScale, 0);
+            GLES20.glUniform3fv(positionOffsetHandle, 1, positionOffset, 0);
+        } else {
+            GLES20.glUniform3f(positionScaleHandle, 1, 1, 1);
+            GLES20.glUniform3f(positionOffsetHandle, 0, 0, 0);
+        }
+        // Shaded only when filled, the wireframe reads better flat
+        boolean lit = filled && hasNormals;
+        GLES20.glUniform1f(lightingHandle, lit ? 1 : 0);
 
         //SURFACE
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+        // Wireframe over the triangles, in the fragment shader, which needs the grid's lattice
+        boolean wireframe = topology.strips && !filled;
+        int latticeBuffer = wireframe ? topologies.lattice(topology).id() : 0;
         GLES20.glEnableVertexAttribArray(positionHandle);
-        GLES20.glVertexAttribPointer(
-                positionHandle,
-                3,
-                GLES20.GL_FLOAT,
-                false,
-                0,
-                0
-        );
+        if (wireframe) {
+            GLES20.glEnableVertexAttribArray(latticeHandle);
+        }
+        if (lit) {
+            GLES20.glEnableVertexAttribArray(normalHandle);
+        }
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, topology.buffer.id());
 
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+        if (!topology.strips) {
+            GLES20.glLineWidth(LINE_WIDTH);
+        }
+        // A coarser grid when the graph is small on screen
+        int level = levelOfDetail.update(modelViewProjectionMatrix, min, max,
+                Math.max(topology.columns, topology.rows));
+        GLES20.glUniform1f(lineWidthHandle, wireframe ? LINE_WIDTH : 0);
+        GLES20.glUniform2f(gridSizeHandle, topology.columns - 1, topology.rows - 1);
+        GLES20.glUniform1f(lineSpacingHandle, LevelOfDetail.STRIDES[level]);
+        int[] ranges = topology.ranges[level];
+        // Only the blocks in view
+        tileCuller.cull(modelViewProjectionMatrix);
+        for (int block = 0; block < ranges.length / 3; ) {
+            if (!tileCuller.isVisible(block)) {
+                block++;
+                continue;
+            }
+            // Visible blocks in a row from the same tile are drawn together
+            int first = block * 3;
+            int count = 0;
+            while (block < ranges.length / 3 && tileCuller.isVisible(block)
+                    && ranges[block * 3] == ranges[first]) {
+                count += ranges[block * 3 + 2];
+                block++;
+            }
 
-        GLES20.glLineWidth(15);
-        GLES20.glDrawElements(GLES20.GL_LINES, indicesCount, GLES20.GL_UNSIGNED_SHORT, 0);
+            // Indices are relative to the tile's first vertex
+            if (wireframe) {
+                GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, latticeBuffer);
+                GLES20.glVertexAttribPointer(
+                        latticeHandle,
+                        2,
+                        GLES20.GL_FLOAT,
+                        false,
+                        0,
+                        ranges[first] * 2 * BYTES_PER_FLOAT
+                );
+            }
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffer.id());
+            GLES20.glVertexAttribPointer(
+                    positionHandle,
+                    COORDS_PER_VERTEX,
+                    quantized ? GLES20.GL_SHORT : GLES20.GL_FLOAT,
+                    false,
+                    0,
+                    ranges[first] * COORDS_PER_VERTEX * (quantized ? BYTES_PER_SHORT : BYTES_PER_FLOAT)
+            );
+            if (lit) {
+                GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, normalBuffer.id());
+                GLES20.glVertexAttribPointer(normalHandle, 3, GLES20.GL_FLOAT, false, 0,
+                        ranges[first] * 3 * BYTES_PER_FLOAT);
+            }
+            GLES20.glDrawElements(topology.mode(), count, topology.indexType(),
+                    ranges[first + 1] * topology.indexSize);
+        }
 
         GLES20.glDisableVertexAttribArray(positionHandle);
+        // Only what was enabled: an attribute the shader doesn't use has no location, and
+        // disabling -1 is an error
+        if (wireframe) {
+            GLES20.glDisableVertexAttribArray(latticeHandle);
+        }
+        if (lit) {
+            GLES20.glDisableVertexAttribArray(normalHandle);
+        }
         GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
         GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
 
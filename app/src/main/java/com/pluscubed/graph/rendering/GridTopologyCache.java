@@ -0,0 +1,178 @@
+package com.pluscubed.graph.rendering;
+
+import android.opengl.GLES20;
+
+import com.pluscubed.graph.mesh.GridIndices;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index buffers of the graph grids, shared by every renderer drawing a grid of the same size.
+ * A grid's line indices only depend on its columns and rows, so each size is built and uploaded
+ * once and stays on the GPU while any renderer holds it; rebuilding a graph at the same size
+ * only uploads its vertices. Each buffer holds every level of detail of the grid, and height
+ * field meshes also share the grid's (x, y) lattice here.
+ * <p>
+ * A grid drawn as triangles, filled or with the wireframe drawn by the fragment shader, has
+ * triangle strips instead of lines, a separate topology of the same size.
+ * <p>
+ * Topologies are reference counted: {@link #acquire} takes a reference and {@link #release}
+ * gives it back, deleting the buffer with the last one. GL thread only.
+ */
+public class GridTopologyCache {
+    private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+    private static final int BYTES_PER_SHORT = Short.SIZE / 8;
+    private static final int BYTES_PER_INT = Integer.SIZE / 8;
+
+    public static final class Topology {
+        public final int columns;
+        public final int rows;
+        // Triangle strips instead of lines
+        public final boolean strips;
+        // Blocks of the grid, see GridIndices
+        public final int[] blocks;
+        // Index range of each block for each level of detail
+        public final int[][] ranges;
+        // Bytes per index, 2 or 4
+        public final int indexSize;
+        public final GpuBufferManager.Buffer buffer;
+
+        // Created on first use, see lattice()
+        private GpuBufferManager.Buffer lattice;
+        private int references;
+
+        private Topology(int columns, int rows, boolean strips, int[] blocks, int[][] ranges,
+                         int indexSize, GpuBufferManager.Buffer buffer) {
+            this.columns = columns;
+            this.rows = rows;
+            this.strips = strips;
+            this.blocks = blocks;
+            this.ranges = ranges;
+            this.indexSize = indexSize;
+            this.buffer = buffer;
+        }
+
+        public int indexType() {
+            return indexSize == BYTES_PER_INT ? GLES20.GL_UNSIGNED_INT : GLES20.GL_UNSIGNED_SHORT;
+        }
+
+        public int mode() {
+            return strips ? GLES20.GL_TRIANGLE_STRIP : GLES20.GL_LINES;
+        }
+    }
+
+    private final GpuBufferManager bufferManager;
+    private final Map<Long, Topology> topologies = new HashMap<>();
+
+    public GridTopologyCache(GpuBufferManager bufferManager) {
+        this.bufferManager = bufferManager;
+    }
+
+    /**
+     * Returns the index buffer for a grid of {@code columns} by {@code rows} vertices, as lines
+     * or triangle strips, uploading it if no renderer holds one yet.
+     */
+    public Topology acquire(int columns, int rows, boolean strips) {
+        long key = key(columns, rows, strips);
+        Topology topology = topologies.get(key);
+        if (topology == null) {
+            topology = create(columns, rows, strips);
+            topologies.put(key, topology);
+        }
+        topology.references++;
+        return topology;
+    }
+
+    public void release(Topology topology) {
+        topology.references--;
+        if (topology.references == 0) {
+            topologies.remove(key(topology.columns, topology.rows, topology.strips));
+            bufferManager.release(topology.buffer);
+            if (topology.lattice != null) {
+                bufferManager.release(topology.lattice);
+            }
+        }
+    }
+
+    /**
+     * Returns the vertex buffer of the grid's lattice: a vec2 per vertex going from 0 to 1 along
+     * the columns and rows, for height field meshes to be drawn over. Uploaded on first use.
+     */
+    public GpuBufferManager.Buffer lattice(Topology topology) {
+        if (topology.lattice == null) {
+            int columns = topology.columns;
+            int rows = topology.rows;
+            int bytes = columns * rows * 2 * BYTES_PER_FLOAT;
+            FloatBuffer lattice = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            for (int row = 0; row < rows; row++) {
+                // Same fractions the meshes are sampled at
+                float v = (float) row / (rows - 1);
+                for (int column = 0; column < columns; column++) {
+                    lattice.put((row * columns + column) * 2, (float) column / (columns - 1));
+                    lattice.put((row * columns + column) * 2 + 1, v);
+                }
+            }
+
+            topology.lattice = bufferManager.create(GLES20.GL_ARRAY_BUFFER);
+            bufferManager.upload(topology.lattice, lattice, bytes);
+        }
+        return topology.lattice;
+    }
+
+    /**
+     * Forgets every topology after the GL context is lost. Renderers drop the ones they hold
+     * without releasing them and acquire again on their next upload.
+     */
+    public void invalidate() {
+        for (Topology topology : topologies.values()) {
+            bufferManager.release(topology.buffer);
+            if (topology.lattice != null) {
+                bufferManager.release(topology.lattice);
+            }
+        }
+        topologies.clear();
+    }
+
+    private static long key(int columns, int rows, boolean strips) {
+        return ((long) columns << 32) | ((long) rows << 1) | (strips ? 1 : 0);
+    }
+
+    private Topology create(int columns, int rows, boolean strips) {
+        boolean wide = GlCapabilities.hasUintIndices();
+        int indexSize = wide ? BYTES_PER_INT : BYTES_PER_SHORT;
+
+        // Every level in one buffer, one after the other
+        int[] blocks = GridIndices.blocks(columns, rows, wide);
+        int[][] ranges = new int[LevelOfDetail.STRIDES.length][];
+        int count = 0;
+        for (int level = 0; level < ranges.length; level++) {
+            int stride = LevelOfDetail.STRIDES[level];
+            ranges[level] = strips
+                    ? GridIndices.stripRanges(blocks, stride, count)
+                    : GridIndices.ranges(blocks, columns, rows, stride, count);
+            count = GridIndices.count(ranges[level]);
+        }
+        int bytes = count * indexSize;
+
+        // Only needed until it's uploaded
+        ByteBuffer storage = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        Buffer indices = wide ? storage.asIntBuffer() : storage.asShortBuffer();
+        for (int level = 0; level < ranges.length; level++) {
+            int stride = LevelOfDetail.STRIDES[level];
+            if (strips) {
+                GridIndices.writeStrips(indices, columns, blocks, ranges[level], stride);
+            } else {
+                GridIndices.write(indices, columns, rows, blocks, ranges[level], stride);
+            }
+        }
+
+        GpuBufferManager.Buffer buffer = bufferManager.create(GLES20.GL_ELEMENT_ARRAY_BUFFER);
+        bufferManager.upload(buffer, indices, bytes);
+        return new Topology(columns, rows, strips, blocks, ranges, indexSize, buffer);
+    }
+}
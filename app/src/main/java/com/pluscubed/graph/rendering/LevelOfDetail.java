@@ -0,0 +1,90 @@
+package com.pluscubed.graph.rendering;
+
+import android.opengl.Matrix;
+
+/**
+ * Picks how much of a graph's resolution to draw from how big it looks. Each level keeps every
+ * stride-th line of the full mesh, and the coarsest one that still puts enough lines across the
+ * graph's projected bounding box is drawn. Dropping to a coarser level needs some margin, so a
+ * graph near a threshold doesn't switch back and forth.
+ * <p>
+ * One per renderer, GL thread only.
+ */
+public final class LevelOfDetail {
+    // Sampling stride of each level, full resolution first
+    public static final int[] STRIDES = {1, 2, 4};
+
+    // Lines worth drawing across the whole screen; closer than a few pixels apart they blur
+    private static final float LINES_PER_SCREEN = 400;
+    // How many more lines than needed a coarser level must still have to switch to it
+    private static final float HYSTERESIS = 1.25f;
+
+    private final float[] corner = new float[4];
+    private final float[] projected = new float[4];
+    private int level;
+
+    public int level() {
+        return level;
+    }
+
+    /**
+     * Chooses the level for this frame.
+     *
+     * @param mvp   model view projection matrix of the graph.
+     * @param min   minimum corner of the bounding box in model space.
+     * @param max   maximum corner of the bounding box in model space.
+     * @param lines lines across the graph at full resolution.
+     * @return the level, an index into {@link #STRIDES}.
+     */
+    public int update(float[] mvp, float[] min, float[] max, int lines) {
+        float size = projectedSize(mvp, min, max);
+        // Screens the graph spans, times the lines each needs
+        float needed = size / 2 * LINES_PER_SCREEN;
+
+        int next = 0;
+        while (next + 1 < STRIDES.length) {
+            float margin = next + 1 > level ? HYSTERESIS : 1;
+            if ((float) lines / STRIDES[next + 1] < needed * margin) {
+                break;
+            }
+            next++;
+        }
+        level = next;
+        return level;
+    }
+
+    /**
+     * Larger side of the bounding box on screen in normalized device coordinates, where the
+     * screen is 2 across. Infinite if part of it is behind the camera.
+     */
+    private float projectedSize(float[] mvp, float[] min, float[] max) {
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < 8; i++) {
+            corner[0] = (i & 1) == 0 ? min[0] : max[0];
+            corner[1] = (i & 2) == 0 ? min[1] : max[1];
+            corner[2] = (i & 4) == 0 ? min[2] : max[2];
+            corner[3] = 1;
+            Matrix.multiplyMV(projected, 0, mvp, 0, corner, 0);
+
+            float w = projected[3];
+            // Also true for NaN bounds
+            if (!(w > 0)) {
+                return Float.POSITIVE_INFINITY;
+            }
+            float x = projected[0] / w;
+            float y = projected[1] / w;
+            if (x < minX)
+                minX = x;
+            if (x > maxX)
+                maxX = x;
+            if (y < minY)
+                minY = y;
+            if (y > maxY)
+                maxY = y;
+        }
+        return Math.max(maxX - minX, maxY - minY);
+    }
+}
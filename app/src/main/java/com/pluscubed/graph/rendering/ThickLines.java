@@ -0,0 +1,165 @@
+package com.pluscubed.graph.rendering;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Lines of any width, drawn as triangle strips that {@code shaders/thick_line.vert} moves out to
+ * each side in screen space, instead of with glLineWidth, which many drivers clamp to a pixel or
+ * draw on a slow path. Joins between segments are mitred.
+ * <p>
+ * Every point of a polyline is stored twice, once for each side, with the side in a fourth
+ * component. The previous and next points are read from the same buffer through attribute
+ * pointers two vertices before and after, so each polyline is padded with its end points on
+ * either side, on neither side of the line. The padding also collapses the triangles between
+ * polylines, so several polylines in a buffer can be drawn in one call.
+ * <p>
+ * Owners link the vertex shader with their fragment shader, set {@code u_ModelViewProjection},
+ * {@code u_PositionScale} and {@code u_PositionOffset} themselves, and bind their vertex buffer
+ * before {@link #bind}. GL thread only.
+ */
+public final class ThickLines {
+    public static final String VERTEX_SHADER_NAME = "shaders/thick_line.vert";
+    // Components per stored vertex: position and side
+    public static final int COORDS_PER_VERTEX = 4;
+
+    private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+    private static final int BYTES_PER_SHORT = Short.SIZE / 8;
+    // Coordinates per point read from the source
+    private static final int SOURCE_COORDS = 3;
+
+    // Set with the surface size, read when drawing
+    private static int viewportWidth = 1;
+    private static int viewportHeight = 1;
+
+    private int positionHandle;
+    private int previousHandle;
+    private int nextHandle;
+    private int viewportHandle;
+    private int thicknessHandle;
+
+    private ByteBuffer scratch;
+
+    public static void setViewport(int width, int height) {
+        viewportWidth = width;
+        viewportHeight = height;
+    }
+
+    /**
+     * Vertices stored for a polyline of {@code points}.
+     */
+    public static int vertexCount(int points) {
+        return 2 * (points + 2);
+    }
+
+    /**
+     * Looks up the attributes and uniforms of a program linked with the vertex shader.
+     */
+    public void createOnGlThread(int program) {
+        positionHandle = GLES20.glGetAttribLocation(program, "a_Position");
+        previousHandle = GLES20.glGetAttribLocation(program, "a_Previous");
+        nextHandle = GLES20.glGetAttribLocation(program, "a_Next");
+        viewportHandle = GLES20.glGetUniformLocation(program, "u_Viewport");
+        thicknessHandle = GLES20.glGetUniformLocation(program, "u_Thickness");
+    }
+
+    /**
+     * Returns a buffer for {@code vertices} stored vertices, shorts or floats, valid until the next
+     * call.
+     */
+    public Buffer buffer(int vertices, boolean shorts) {
+        int bytes = vertices * COORDS_PER_VERTEX * (shorts ? BYTES_PER_SHORT : BYTES_PER_FLOAT);
+        if (scratch == null || scratch.capacity() < bytes) {
+            scratch = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        scratch.clear();
+        Buffer buffer = shorts ? scratch.asShortBuffer() : scratch.asFloatBuffer();
+        buffer.limit(vertices * COORDS_PER_VERTEX);
+        return buffer;
+    }
+
+    /**
+     * Stores a polyline from every {@code stride}-th of {@code points} (y, z, x) source points,
+     * floats or quantized shorts like the target, from vertex {@code vertex} of the target.
+     *
+     * @return the vertex after the polyline.
+     */
+    public static int put(Buffer source, int points, int stride, Buffer target, int vertex) {
+        int kept = points > 0 ? (points - 1) / stride + 1 : 0;
+        if (kept == 0) {
+            return vertex;
+        }
+        // The first point, padding, then every kept point, then the last point, padding
+        vertex = putPoint(source, 0, 0, target, vertex);
+        for (int k = 0; k < kept; k++) {
+            vertex = putPoint(source, k * stride, 1, target, vertex);
+        }
+        return putPoint(source, (kept - 1) * stride, 0, target, vertex);
+    }
+
+    /**
+     * Sets up the attribute pointers into the bound array buffer, holding shorts or floats as
+     * {@code type}, and the line width in pixels.
+     */
+    public void bind(int type, float thickness) {
+        int size = type == GLES20.GL_SHORT ? BYTES_PER_SHORT : BYTES_PER_FLOAT;
+        int stride = COORDS_PER_VERTEX * size;
+
+        GLES20.glUniform2f(viewportHandle, viewportWidth, viewportHeight);
+        GLES20.glUniform1f(thicknessHandle, thickness);
+
+        // Vertex i is drawn from stored vertex i + 2, between its neighbours' i and i + 4
+        GLES20.glEnableVertexAttribArray(previousHandle);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glEnableVertexAttribArray(nextHandle);
+        GLES20.glVertexAttribPointer(previousHandle, SOURCE_COORDS, type, false, stride, 0);
+        GLES20.glVertexAttribPointer(positionHandle, COORDS_PER_VERTEX, type, false, stride, 2 * stride);
+        GLES20.glVertexAttribPointer(nextHandle, SOURCE_COORDS, type, false, stride, 4 * stride);
+    }
+
+    /**
+     * Draws the polylines stored from vertex {@code start} up to {@code end}.
+     */
+    public void draw(int start, int end) {
+        // The padding of the first and last polyline is only read as neighbours
+        int count = end - start - 4;
+        if (count > 0) {
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, start, count);
+        }
+    }
+
+    public void unbind() {
+        GLES20.glDisableVertexAttribArray(previousHandle);
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        GLES20.glDisableVertexAttribArray(nextHandle);
+    }
+
+    /**
+     * Stores a point on both sides of the line, or twice on it for {@code side} 0.
+     */
+    private static int putPoint(Buffer source, int point, int side, Buffer target, int vertex) {
+        for (int copy = 0; copy < 2; copy++) {
+            int t = vertex * COORDS_PER_VERTEX;
+            for (int i = 0; i < SOURCE_COORDS; i++) {
+                if (target instanceof FloatBuffer) {
+                    ((FloatBuffer) target).put(t + i, ((FloatBuffer) source).get(point * SOURCE_COORDS + i));
+                } else {
+                    ((ShortBuffer) target).put(t + i, ((ShortBuffer) source).get(point * SOURCE_COORDS + i));
+                }
+            }
+            int w = copy == 0 ? -side : side;
+            if (target instanceof FloatBuffer) {
+                ((FloatBuffer) target).put(t + SOURCE_COORDS, w);
+            } else {
+                ((ShortBuffer) target).put(t + SOURCE_COORDS, (short) w);
+            }
+            vertex++;
+        }
+        return vertex;
+    }
+}
@@ -0,0 +1,126 @@
+package com.pluscubed.graph.rendering;
+
+import com.pluscubed.graph.mesh.BlockBounds;
+import com.pluscubed.graph.mesh.GridIndices;
+
+/**
+ * Skips the blocks of a grid that are outside the view frustum. Each block's bounding box is
+ * combined from the mesh's {@link BlockBounds} once per upload and tested against the frustum
+ * planes of the model view projection matrix each frame; a box is only culled if it's entirely
+ * outside one plane, so nothing visible is dropped.
+ * <p>
+ * The counts from the last frame can be read from any thread. Everything else is GL thread only.
+ */
+public final class TileCuller {
+    // Min (y, z, x) then max (y, z, x) of each block
+    private float[] bounds = new float[0];
+    private boolean[] visible = new boolean[0];
+    private int blockCount;
+
+    // (a, b, c, d) of each plane, inside where a * y + b * z + c * x + d >= 0
+    private final float[] planes = new float[24];
+
+    private volatile int tilesTested;
+    private volatile int tilesDrawn;
+
+    /**
+     * Finds the bounding box of every block from the boxes of the mesh's blocks. Tiles of 16-bit
+     * indices split those, so a block gets the union of the boxes it overlaps.
+     */
+    public void setBounds(float[] blockBounds, int columns, int rows, int[] blocks) {
+        blockCount = blocks.length / GridIndices.BLOCK_INTS;
+        if (bounds.length < blockCount * 6) {
+            bounds = new float[blockCount * 6];
+            visible = new boolean[blockCount];
+        }
+
+        int boundColumns = BlockBounds.along(columns);
+        int boundRows = BlockBounds.along(rows);
+        for (int block = 0; block < blockCount; block++) {
+            int b = block * GridIndices.BLOCK_INTS;
+            int o = block * 6;
+            for (int i = 0; i < 3; i++) {
+                bounds[o + i] = Float.MAX_VALUE;
+                bounds[o + 3 + i] = -Float.MAX_VALUE;
+            }
+            int lastRow = lastBound(blocks[b + 1], blocks[b + 2], boundRows);
+            int lastColumn = lastBound(blocks[b + 3], blocks[b + 4], boundColumns);
+            for (int row = firstBound(blocks[b + 1], boundRows); row <= lastRow; row++) {
+                for (int column = firstBound(blocks[b + 3], boundColumns); column <= lastColumn; column++) {
+                    BlockBounds.grow(bounds, o, blockBounds, (row * boundColumns + column) * 6);
+                }
+            }
+        }
+    }
+
+    /**
+     * Block of the mesh's bounds along an axis with the first cell from {@code first}.
+     */
+    private static int firstBound(int first, int count) {
+        return Math.min(first / GridIndices.BLOCK_CELLS, count - 1);
+    }
+
+    /**
+     * Block of the mesh's bounds along an axis with the last cell up to {@code last}.
+     */
+    private static int lastBound(int first, int last, int count) {
+        return Math.min(Math.max(first, last - 1) / GridIndices.BLOCK_CELLS, count - 1);
+    }
+
+    /**
+     * Tests every block against the frustum of {@code mvp} for {@link #isVisible}.
+     */
+    public void cull(float[] mvp) {
+        // Rows of the column-major matrix added to or subtracted from the w row: left, right,
+        // bottom, top, near, far
+        for (int p = 0; p < 6; p++) {
+            int row = p / 2;
+            float sign = p % 2 == 0 ? 1 : -1;
+            for (int i = 0; i < 4; i++) {
+                planes[p * 4 + i] = mvp[i * 4 + 3] + sign * mvp[i * 4 + row];
+            }
+        }
+
+        int drawn = 0;
+        for (int block = 0; block < blockCount; block++) {
+            visible[block] = inside(block * 6);
+            if (visible[block]) {
+                drawn++;
+            }
+        }
+        tilesTested = blockCount;
+        tilesDrawn = drawn;
+    }
+
+    public boolean isVisible(int block) {
+        return visible[block];
+    }
+
+    /**
+     * Blocks tested in the last frame.
+     */
+    public int tilesTested() {
+        return tilesTested;
+    }
+
+    /**
+     * Blocks found visible in the last frame.
+     */
+    public int tilesDrawn() {
+        return tilesDrawn;
+    }
+
+    private boolean inside(int o) {
+        for (int p = 0; p < 24; p += 4) {
+            // Corner of the box furthest along the plane's normal
+            float distance = planes[p + 3];
+            for (int i = 0; i < 3; i++) {
+                distance += planes[p + i] * (planes[p + i] >= 0 ? bounds[o + 3 + i] : bounds[o + i]);
+            }
+            if (distance < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
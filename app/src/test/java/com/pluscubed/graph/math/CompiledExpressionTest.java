@@ -0,0 +1,209 @@
+package com.pluscubed.graph.math;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mariuszgromada.math.mxparser.Argument;
+import org.mariuszgromada.math.mxparser.Expression;
+import org.mariuszgromada.math.mxparser.mXparser;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Differential test of compiled expressions against mXparser, which they replace, over random
+ * expressions at random points.
+ * <p>
+ * mXparser's ulp rounding is off: it rounds intermediate results to nearby round numbers, which
+ * the compiler doesn't do, and that can land either side of a domain edge or an integer, e.g.
+ * {@code (x-y*x)^1.5} is NaN with it at some points where {@code x-y*x} is really 0.
+ */
+public class CompiledExpressionTest {
+    private static final long SEED = 20180117;
+    private static final int EXPRESSIONS = 3000;
+    private static final int POINTS = 20;
+    // Sums and products may be rearranged, so they don't always round the same way
+    private static final double TOLERANCE = 1e-9;
+    // Relative change of the inputs that shows whether a point is too ill-conditioned to compare
+    private static final double PERTURBATION = 1e-13;
+    private static final Pattern LITERAL = Pattern.compile("\\b(\\d+(\\.\\d+)?|pi|e)\\b");
+
+    private static final String[] FUNCTIONS = {
+            "sin", "cos", "tan", "tg", "cot", "ctg", "sec", "csc", "cosec", "asin", "arcsin", "acos",
+            "atan", "arctg", "sinh", "cosh", "tanh", "exp", "ln", "log2", "log10", "sqrt", "abs"
+    };
+    // Given simple arguments only: an argument rounded differently at an integer is a whole step
+    // off after them
+    private static final String[] STEP_FUNCTIONS = {"sgn", "floor", "ceil"};
+    private static final String[] BINARY_FUNCTIONS = {"log", "min", "max"};
+    private static final String[] OPERATORS = {"+", "-", "*", "/", "^"};
+    private static final String[] CONSTANTS = {"0", "1", "2", "3", "0.5", "2.5", "10", "pi", "e"};
+    // Points where denominators, logarithms and roots tend to hit their edges
+    private static final double[] SPECIAL_POINTS = {0, 1, -1, 2, -2, 0.5};
+
+    private final Random random = new Random(SEED);
+
+    @BeforeClass
+    public static void disableUlpRounding() {
+        mXparser.disableUlpRounding();
+    }
+
+    @AfterClass
+    public static void enableUlpRounding() {
+        mXparser.enableUlpRounding();
+    }
+
+    @Test
+    public void matchesMxparser() {
+        int compiled = 0;
+        for (int i = 0; i < EXPRESSIONS; i++) {
+            String expression = expression(4);
+            CompiledExpression compiledExpression = CompiledExpression.compile(expression, "x", "y");
+            if (compiledExpression instanceof Program) {
+                compiled++;
+            }
+            Evaluator evaluator = compiledExpression.newEvaluator();
+
+            Argument x = new Argument("x");
+            Argument y = new Argument("y");
+            Expression mxExpression = new Expression(expression, x, y);
+            for (int p = 0; p < POINTS; p++) {
+                double a = point();
+                double b = point();
+                x.setArgumentValue(a);
+                y.setArgumentValue(b);
+                double expected = mxExpression.calculate();
+                double actual = evaluator.evaluate(a, b);
+                if (!matches(expected, actual) && !illConditioned(expression, a, b, expected, actual)) {
+                    fail(expression + " at x=" + a + ", y=" + b + ": expected " + expected + " but was " + actual);
+                }
+            }
+        }
+        // Most of them should have been compiled rather than handed back to mXparser
+        assertTrue("Only " + compiled + " of " + EXPRESSIONS + " compiled", compiled > EXPRESSIONS * 3 / 4);
+    }
+
+    @Test
+    public void batchesMatchPoints() {
+        int count = 64;
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        double[] out = new double[count];
+        double[] row = new double[count];
+        for (int i = 0; i < EXPRESSIONS / 10; i++) {
+            String expression = expression(4);
+            Evaluator evaluator = CompiledExpression.compile(expression, "x", "y").newEvaluator();
+            double b = point();
+            for (int p = 0; p < count; p++) {
+                xs[p] = point();
+                ys[p] = b;
+            }
+            evaluator.evaluate(xs, ys, out, count);
+            evaluator.evaluateRow(xs, b, row, count);
+            for (int p = 0; p < count; p++) {
+                double expected = evaluator.evaluate(xs[p], b);
+                if (Double.compare(expected, out[p]) != 0 || Double.compare(expected, row[p]) != 0) {
+                    fail(expression + " at x=" + xs[p] + ", y=" + b + ": point " + expected
+                            + ", batch " + out[p] + ", row " + row[p]);
+                }
+            }
+        }
+    }
+
+    private static boolean matches(double expected, double actual) {
+        if (Double.isNaN(expected) || Double.isNaN(actual) || Double.isInfinite(expected)
+                || Double.isInfinite(actual)) {
+            return Double.compare(expected, actual) == 0;
+        }
+        double scale = Math.max(1e-3, Math.max(Math.abs(expected), Math.abs(actual)));
+        return Math.abs(expected - actual) <= TOLERANCE * scale;
+    }
+
+    /**
+     * Whether two finite values are apart because the expression amplifies rounding at the
+     * point, e.g. {@code tan} near a pole or {@code cos(csc(pi))}: mXparser itself moves further
+     * than the tolerance when the variables and literals move by about a rounding error.
+     */
+    private static boolean illConditioned(String expression, double a, double b, double expected, double actual) {
+        if (Double.isNaN(expected) || Double.isNaN(actual) || Double.isInfinite(expected)
+                || Double.isInfinite(actual)) {
+            return false;
+        }
+        for (int sign = -1; sign <= 1; sign += 2) {
+            double factor = 1 + sign * PERTURBATION;
+            Argument x = new Argument("x", a + sign * PERTURBATION * Math.max(1, Math.abs(a)));
+            Argument y = new Argument("y", b + sign * PERTURBATION * Math.max(1, Math.abs(b)));
+            double perturbed = new Expression(scaleLiterals(expression, factor), x, y).calculate();
+            if (!matches(expected, perturbed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String scaleLiterals(String expression, double factor) {
+        Matcher matcher = LITERAL.matcher(expression);
+        StringBuffer scaled = new StringBuffer();
+        while (matcher.find()) {
+            String literal = matcher.group(1);
+            String replacement = literal.equals("pi") || literal.equals("e")
+                    ? "(" + literal + "*" + factor + ")"
+                    : String.valueOf(Double.parseDouble(literal) * factor);
+            matcher.appendReplacement(scaled, replacement);
+        }
+        matcher.appendTail(scaled);
+        return scaled.toString();
+    }
+
+    private double point() {
+        if (random.nextInt(3) == 0) {
+            return SPECIAL_POINTS[random.nextInt(SPECIAL_POINTS.length)];
+        }
+        return (random.nextDouble() * 2 - 1) * 5;
+    }
+
+    /**
+     * A random expression, with the operator precedence and signs left to the parser as often
+     * as they're spelled out with parentheses.
+     */
+    private String expression(int depth) {
+        int kind = depth == 0 ? 0 : random.nextInt(10);
+        switch (kind) {
+            case 0:
+            case 1:
+                switch (random.nextInt(4)) {
+                    case 0:
+                        return "x";
+                    case 1:
+                        return "y";
+                    case 2:
+                        return CONSTANTS[random.nextInt(CONSTANTS.length)];
+                    default:
+                        return String.valueOf(random.nextInt(20) / 4.0);
+                }
+            case 2:
+            case 3:
+            case 4:
+                String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+                String lhs = expression(depth - 1);
+                String rhs = expression(depth - 1);
+                return random.nextBoolean()
+                        ? "(" + lhs + ")" + operator + "(" + rhs + ")"
+                        : lhs + operator + rhs;
+            case 5:
+                // Signed operands and negative literals
+                return random.nextBoolean() ? "-" + expression(depth - 1) : "(-" + expression(depth - 1) + ")";
+            case 6:
+                return BINARY_FUNCTIONS[random.nextInt(BINARY_FUNCTIONS.length)]
+                        + "(" + expression(depth - 1) + "," + expression(depth - 1) + ")";
+            case 7:
+                return STEP_FUNCTIONS[random.nextInt(STEP_FUNCTIONS.length)] + "(" + expression(1) + ")";
+            default:
+                return FUNCTIONS[random.nextInt(FUNCTIONS.length)] + "(" + expression(depth - 1) + ")";
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.pluscubed.graph.mesh;
+
+import org.junit.Test;
+
+import java.nio.IntBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares what the GPU is given to draw a grid as lines and as filled triangle strips, at each
+ * level of detail: draw calls, indices fetched, vertices transformed through a simulated vertex
+ * cache, and primitives rasterized. Lines wider than a pixel are rasterized as two triangles
+ * each on most GPUs, so a wide line costs about as much setup as two triangles.
+ */
+public class GridDrawCostTest {
+    // Strides of rendering.LevelOfDetail
+    private static final int[] STRIDES = {1, 2, 4};
+    private static final int CACHE_SIZE = 16;
+
+    @Test
+    public void stripsFetchFewerIndicesThanLines() {
+        for (int size : new int[]{201, 301, 1001}) {
+            int[] blocks = GridIndices.blocks(size, size, true);
+            for (int stride : STRIDES) {
+                String grid = size + "x" + size + " stride " + stride;
+                int[] lineRanges = GridIndices.ranges(blocks, size, size, stride, 0);
+                IntBuffer lineIndices = IntBuffer.allocate(GridIndices.count(lineRanges));
+                GridIndices.write(lineIndices, size, size, blocks, lineRanges, stride);
+                int[] stripRanges = GridIndices.stripRanges(blocks, stride, 0);
+                IntBuffer stripIndices = IntBuffer.allocate(GridIndices.count(stripRanges));
+                GridIndices.writeStrips(stripIndices, size, blocks, stripRanges, stride);
+
+                int lines = GridIndices.count(lineRanges) / 2;
+                long triangles = VertexCacheStats.triangles(stripIndices, stripRanges);
+                // Two triangles per cell, two segments per cell and the far edges
+                int cells = countKept(size, stride) - 1;
+                assertEquals(grid, 2L * cells * cells, triangles);
+                assertEquals(grid, 2 * cells * (cells + 1), lines);
+
+                // Four line indices per cell against about 2.7 for strips, joins included
+                int stripIndexCount = GridIndices.count(stripRanges);
+                assertTrue(grid + ": " + stripIndexCount + " strip indices for " + cells * cells + " cells",
+                        stripIndexCount <= 3 * cells * cells);
+                assertTrue(grid, stripIndexCount < 0.7 * GridIndices.count(lineRanges));
+
+                // The strips transform about as many vertices as the lines
+                long lineMisses = VertexCacheStats.misses(lineIndices, lineRanges, CACHE_SIZE);
+                long stripMisses = VertexCacheStats.misses(stripIndices, stripRanges, CACHE_SIZE);
+                assertTrue(grid + ": " + stripMisses + " against " + lineMisses, stripMisses < 1.1 * lineMisses);
+            }
+        }
+    }
+
+    @Test
+    public void drawCallsPerTile() {
+        // 301x301 needs two tiles of 16-bit indices, 201x201 fits in one
+        int[][] grids = {{201, 1}, {301, 2}};
+        for (int[] grid : grids) {
+            int size = grid[0];
+            int[] blocks = GridIndices.blocks(size, size, false);
+            for (int stride : STRIDES) {
+                int[] lineRanges = GridIndices.ranges(blocks, size, size, stride, 0);
+                int[] stripRanges = GridIndices.stripRanges(blocks, stride, 0);
+                assertEquals(size + " lines stride " + stride, grid[1], drawCalls(lineRanges));
+                assertEquals(size + " strips stride " + stride, grid[1], drawCalls(stripRanges));
+            }
+        }
+    }
+
+    /**
+     * Rows and columns kept at a stride, see GridIndices.
+     */
+    private static int countKept(int size, int stride) {
+        int kept = 0;
+        for (int line = 0; line < size; line++) {
+            if (line % stride == 0 || line % GridIndices.BLOCK_CELLS == 0 || line == size - 1) {
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Draw calls with every block in view: the renderers draw blocks of the same tile together.
+     */
+    private static int drawCalls(int[] ranges) {
+        int calls = 0;
+        for (int r = 0; r < ranges.length; r += 3) {
+            if (r == 0 || ranges[r] != ranges[r - 3]) {
+                calls++;
+            }
+        }
+        return calls;
+    }
+}
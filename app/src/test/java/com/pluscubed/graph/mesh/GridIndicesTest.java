@@ -0,0 +1,100 @@
+package com.pluscubed.graph.mesh;
+
+import org.junit.Test;
+
+import java.nio.IntBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that grid line indices cover every segment once, and that lines and strips are ordered
+ * to reuse the vertex cache: see {@link VertexCacheStats}.
+ */
+public class GridIndicesTest {
+    private static final int CACHE_SIZE = 16;
+    private static final int[] STRIDES = {1, 2, 4};
+
+    @Test
+    public void linesCoverEverySegmentOnce() {
+        int columns = 150;
+        int rows = 90;
+        int[] blocks = GridIndices.blocks(columns, rows, true);
+        int[] ranges = GridIndices.ranges(blocks, columns, rows, 1, 0);
+        IntBuffer indices = IntBuffer.allocate(GridIndices.count(ranges));
+        GridIndices.write(indices, columns, rows, blocks, ranges, 1);
+
+        // Segments by their first vertex, along a row and along a column
+        int[] alongRows = new int[columns * rows];
+        int[] alongColumns = new int[columns * rows];
+        for (int r = 0; r < ranges.length; r += 3) {
+            for (int i = ranges[r + 1]; i < ranges[r + 1] + ranges[r + 2]; i += 2) {
+                int a = ranges[r] + indices.get(i);
+                int b = ranges[r] + indices.get(i + 1);
+                int first = Math.min(a, b);
+                int distance = Math.abs(a - b);
+                assertTrue("Not a grid segment: " + a + "-" + b,
+                        distance == columns || (distance == 1 && first % columns != columns - 1));
+                (distance == 1 ? alongRows : alongColumns)[first]++;
+            }
+        }
+        for (int vertex = 0; vertex < columns * rows; vertex++) {
+            int column = vertex % columns;
+            int row = vertex / columns;
+            assertEquals("Segment along the row from " + vertex,
+                    column < columns - 1 ? 1 : 0, alongRows[vertex]);
+            assertEquals("Segment along the column from " + vertex,
+                    row < rows - 1 ? 1 : 0, alongColumns[vertex]);
+        }
+    }
+
+    @Test
+    public void linesReuseTheVertexCache() {
+        for (int size : new int[]{201, 1001}) {
+            int[] blocks = GridIndices.blocks(size, size, true);
+            for (int stride : STRIDES) {
+                int[] ranges = GridIndices.ranges(blocks, size, size, stride, 0);
+                IntBuffer indices = IntBuffer.allocate(GridIndices.count(ranges));
+                GridIndices.write(indices, size, size, blocks, ranges, stride);
+
+                // Every vertex misses once, about 0.5 per segment; rows then columns is about 1
+                float acmr = VertexCacheStats.lineAcmr(indices, ranges, CACHE_SIZE);
+                assertTrue(size + "x" + size + " stride " + stride + " ACMR " + acmr, acmr < 0.62f);
+            }
+        }
+    }
+
+    @Test
+    public void stripsReuseTheVertexCache() {
+        for (int size : new int[]{201, 1001}) {
+            int[] blocks = GridIndices.blocks(size, size, true);
+            for (int stride : STRIDES) {
+                int[] ranges = GridIndices.stripRanges(blocks, stride, 0);
+                IntBuffer indices = IntBuffer.allocate(GridIndices.count(ranges));
+                GridIndices.writeStrips(indices, size, blocks, ranges, stride);
+
+                // About 0.5 per triangle at best, coarser strides share fewer vertices between stripes
+                float acmr = VertexCacheStats.stripAcmr(indices, ranges, CACHE_SIZE);
+                assertTrue(size + "x" + size + " stride " + stride + " ACMR " + acmr, acmr < 0.7f);
+            }
+        }
+    }
+
+    @Test
+    public void rowsThenColumnsMissTwice() {
+        int size = 201;
+        IntBuffer indices = IntBuffer.allocate(4 * size * (size - 1));
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size - 1; column++) {
+                indices.put(row * size + column).put(row * size + column + 1);
+            }
+        }
+        for (int column = 0; column < size; column++) {
+            for (int row = 0; row < size - 1; row++) {
+                indices.put(row * size + column).put((row + 1) * size + column);
+            }
+        }
+        float acmr = VertexCacheStats.lineAcmr(indices, new int[]{0, 0, indices.capacity()}, CACHE_SIZE);
+        assertTrue("ACMR " + acmr, acmr > 0.95f);
+    }
+}
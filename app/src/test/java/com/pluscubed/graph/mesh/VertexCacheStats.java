@@ -0,0 +1,94 @@
+package com.pluscubed.graph.mesh;
+
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Measures how well an index order uses the GPU's post-transform vertex cache, simulated as a
+ * FIFO of the last few vertices like most mobile GPUs. The result is the ACMR, average cache
+ * misses per primitive; for a line list that's per segment. Every vertex has to miss once, so a
+ * grid's lines can't get below about 0.5, and an order that fetches each vertex twice is near 1.
+ * A grid has two triangles per vertex, so its triangles can't get below about 0.5 either.
+ */
+final class VertexCacheStats {
+    private VertexCacheStats() {
+    }
+
+    /**
+     * @param ranges    index ranges as GridIndices triples: first vertex, first index, count.
+     * @param cacheSize vertices the simulated cache holds.
+     */
+    static float lineAcmr(Buffer indices, int[] ranges, int cacheSize) {
+        long segments = 0;
+        for (int r = 0; r < ranges.length; r += 3) {
+            segments += ranges[r + 2] / 2;
+        }
+        return segments > 0 ? (float) misses(indices, ranges, cacheSize) / segments : 0;
+    }
+
+    /**
+     * ACMR of triangle strips, per triangle that isn't degenerate; the joins between strips cost
+     * indices but don't count as triangles. Ranges are as for {@link #lineAcmr}.
+     */
+    static float stripAcmr(Buffer indices, int[] ranges, int cacheSize) {
+        long triangles = triangles(indices, ranges);
+        return triangles > 0 ? (float) misses(indices, ranges, cacheSize) / triangles : 0;
+    }
+
+    /**
+     * Triangles in triangle strips with three different vertices.
+     */
+    static long triangles(Buffer indices, int[] ranges) {
+        long triangles = 0;
+        for (int r = 0; r < ranges.length; r += 3) {
+            int end = ranges[r + 1] + ranges[r + 2];
+            for (int i = ranges[r + 1] + 2; i < end; i++) {
+                int a = get(indices, i - 2);
+                int b = get(indices, i - 1);
+                int c = get(indices, i);
+                if (a != b && b != c && a != c) {
+                    triangles++;
+                }
+            }
+        }
+        return triangles;
+    }
+
+    /**
+     * Vertices transformed, the cache misses over every range in order.
+     */
+    static long misses(Buffer indices, int[] ranges, int cacheSize) {
+        int[] fifo = new int[cacheSize];
+        Arrays.fill(fifo, -1);
+        int next = 0;
+        long misses = 0;
+
+        for (int r = 0; r < ranges.length; r += 3) {
+            for (int i = ranges[r + 1]; i < ranges[r + 1] + ranges[r + 2]; i++) {
+                int vertex = ranges[r] + get(indices, i);
+                boolean hit = false;
+                for (int cached : fifo) {
+                    if (cached == vertex) {
+                        hit = true;
+                        break;
+                    }
+                }
+                if (!hit) {
+                    misses++;
+                    fifo[next] = vertex;
+                    next = (next + 1) % cacheSize;
+                }
+            }
+        }
+        return misses;
+    }
+
+    private static int get(Buffer indices, int position) {
+        if (indices instanceof IntBuffer) {
+            return ((IntBuffer) indices).get(position);
+        }
+        return ((ShortBuffer) indices).get(position) & 0xFFFF;
+    }
+}